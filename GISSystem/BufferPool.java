@@ -1,78 +1,268 @@
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 
 /**
- * A buffer pool that stores 15 entire GIS records and uses LRU replacement
+ * A buffer pool that stores entire GIS records (15 unless another capacity
+ * is given) and uses LRU replacement unless given another ReplacementPolicy.
+ *
+ * Records live in a fixed array of slots, an OffsetMap finds the slot
+ * holding an offset, and the policy picks the slot to reuse when the pool
+ * is full, so a lookup, a hit and an eviction each take constant time
+ * however large the pool is. An optional FrequencySketch acts as a TinyLFU
+ * admission filter: a missed record is only cached in a full pool if it has
+ * been asked for more often than the record it would replace.
+ *
+ * The pool counts hits, misses, evictions and records turned away by the
+ * admission filter, and display() reports them with the hit ratio.
  */
-public class BufferPool<T> 
+public class BufferPool<T> implements RecordPool
 {
-    //Represents the actual buffer pool 
-    private ArrayList<GISRecord> pool;
-    
-    private static final int cap = 15;
-    
+    private static final int DEFAULT_CAPACITY = 15;
+
+    private int cap; //Number of slots
+    private GISRecord[] records; //Record held in each slot
+    private int size; //Number of slots filled
+    private OffsetMap slots; //Slot holding each pooled offset
+    private ReplacementPolicy policy; //Picks the slot to reuse
+    private FrequencySketch admission; //Admission filter (null to admit every record)
+
+    private long hits, misses, evictions, rejections;
+
     /**
-     * Initialize the buffer pool to hold 15 elements
+     * Initialize the buffer pool to hold 15 elements with LRU replacement
      */
     public BufferPool()
     {
-        pool = new ArrayList<GISRecord>(cap);
+        this(DEFAULT_CAPACITY, new LruPolicy(DEFAULT_CAPACITY), null);
+    }
+
+    /**
+     * Initialize the buffer pool
+     * @param capacity The number of records the pool holds (>= 1)
+     * @param policy The replacement policy, created for the same capacity
+     * @param admission The admission filter, or null to admit every record
+     */
+    public BufferPool(int capacity, ReplacementPolicy policy, FrequencySketch admission)
+    {
+        cap = capacity;
+        records = new GISRecord[cap];
+        slots = new OffsetMap(cap);
+        this.policy = policy;
+        this.admission = admission;
     }
-    
+
+    /**
+     * Creates an empty pool
+     * @param capacity The number of records the pool holds (>= 1)
+     * @param policy The name of the replacement policy: lru, clock or slru
+     * @param admission true to put a TinyLFU admission filter on the pool
+     * @return The pool
+     */
+    public static BufferPool<GISRecord> create(int capacity, String policy, boolean admission)
+    {
+        ReplacementPolicy replacement;
+        if (policy.equals("clock"))
+        {
+            replacement = new ClockPolicy(capacity);
+        }
+        else if (policy.equals("slru"))
+        {
+            replacement = new SegmentedLruPolicy(capacity);
+        }
+        else
+        {
+            replacement = new LruPolicy(capacity);
+        }
+        return new BufferPool<GISRecord>(capacity, replacement,
+            admission ? new FrequencySketch(capacity) : null);
+    }
+
+    public int capacity()
+    {
+        return cap;
+    }
+
+    public boolean contains(long offset)
+    {
+        return slots.get(offset) != OffsetMap.NONE;
+    }
+
     /**
      * Determines if the offset matches a record in the buffer pool
      * @param offset The offset to be queried
      * @return the GIS record corresponding to the given offset or null if not in pool
      */
-    public String inPool(long offset)
+    public GISRecord inPool(long offset)
     {
-        for (int i = 0; i < pool.size(); i++)
+        if (admission != null)
         {
-            if (pool.get(i).offset() == offset)
-            {
-                //Add to MRU
-                GISRecord rcd = pool.get(i);
-                pool.remove(i);
-                pool.add(0, rcd);
-                return rcd.record();
-            }
+            admission.increment(offset);
+        }
+        int slot = slots.get(offset);
+        if (slot == OffsetMap.NONE)
+        {
+            misses++;
+            return null;
         }
-        return null;
+        hits++;
+        policy.accessed(slot);
+        return records[slot];
     }
-    
+
     /**
-     * Imports a GIS record into the buffer pool
+     * Imports a GIS record into the buffer pool, unless the pool is full and
+     * the admission filter turns it away
      * Pre: The GIS record is not already in the buffer pool
      * @param rcd The record to be inserted to the buffer pool
-     * @param offset The offset of the record
      */
-    public void insertRcd(String rcd, long offset)
+    public void insertRcd(GISRecord rcd)
     {
-        GISRecord gisRcd = new GISRecord(rcd, offset);
-        //Pool is full
-        if (pool.size() == 15)
+        long offset = rcd.offset();
+        int slot;
+        //Pool is full: reuse the policy's victim slot
+        if (size == cap)
+        {
+            slot = policy.victim();
+            if (admission != null && !admission.admit(offset, records[slot].offset()))
+            {
+                rejections++;
+                return;
+            }
+            evictions++;
+            policy.evicted(slot);
+            slots.remove(records[slot].offset());
+        }
+        else
         {
-            pool.remove(14);
+            slot = size++;
         }
-        pool.add(0, gisRcd);
+        records[slot] = rcd;
+        slots.put(offset, slot);
+        policy.inserted(slot);
     }
-    
+
+    public GISRecord[] contents()
+    {
+        int[] order = policy.order();
+        GISRecord[] ranked = new GISRecord[order.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            ranked[i] = records[order[i]];
+        }
+        return ranked;
+    }
+
+    public void takeFrom(RecordPool other)
+    {
+        load(other.contents());
+    }
+
     /**
-     * Displays the contents of the buffer pool in a human-readable format
-     * 
+     * Fills this (empty) pool with the leading records of ranked that fit,
+     * without counting them as misses
+     * @param ranked Records from the most to the least valued
+     */
+    public void load(GISRecord[] ranked)
+    {
+        int numKept = Math.min(ranked.length, cap);
+        //Least valued first, so the most valued ends up at the MRU end
+        for (int i = numKept - 1; i >= 0; i--)
+        {
+            int slot = size++;
+            records[slot] = ranked[i];
+            slots.put(ranked[i].offset(), slot);
+            policy.inserted(slot);
+        }
+    }
+
+    /**
+     * Returns the name of the policy, with "+tinylfu" if the pool has an
+     * admission filter
+     */
+    public String policyName()
+    {
+        return policy.name() + (admission != null ? "+tinylfu" : "");
+    }
+
+    /**
+     * Returns the number of requests found in the pool
+     */
+    public long hits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests not found in the pool
+     */
+    public long misses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of records replaced
+     */
+    public long evictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of records the admission filter turned away
+     */
+    public long rejections()
+    {
+        return rejections;
+    }
+
+    public String stats()
+    {
+        return formatStats(policyName(), cap, hits, misses, evictions,
+            admission != null ? rejections : -1);
+    }
+
+    /**
+     * Formats pool counts for the log
+     * @param rejections The number of records turned away, or -1 if there is
+     *                   no admission filter
+     */
+    public static String formatStats(String policyName, int capacity, long hits, long misses,
+        long evictions, long rejections)
+    {
+        long requests = hits + misses;
+        String ratio = String.format("%.1f%%", requests == 0 ? 0.0 : 100.0 * hits / requests);
+        return "Policy: " + policyName + "\tcapacity: " + capacity + "\thits: " + hits +
+            "\tmisses: " + misses + "\tevictions: " + evictions +
+            (rejections >= 0 ? "\trejected: " + rejections : "") + "\thit ratio: " + ratio;
+    }
+
+    /**
+     * Displays the contents of the buffer pool in a human-readable format,
+     * from the record the policy would keep longest to the one it would
+     * replace first, followed by the counts
      */
     public void display(FileWriter log) throws IOException
+    {
+        displayRecords(log);
+        log.write(stats() + "\n");
+        log.write(
+            "--------------------------------------------------------------------------------\n");
+    }
+
+    /**
+     * Writes the records of the pool from MRU to LRU
+     */
+    public void displayRecords(FileWriter log) throws IOException
     {
         log.write("MRU\n");
-        for (int i = 0; i < pool.size(); i++)
+        int[] order = policy.order();
+        for (int i = 0; i < order.length; i++)
         {
-            log.write("    " + String.valueOf(pool.get(i).offset()) + ":\t" + 
-                pool.get(i).record() + "\n");
+            log.write("    " + String.valueOf(records[order[i]].offset()) + ":\t" +
+                records[order[i]].record() + "\n");
         }
         log.write("LRU\n");
-        log.write(
-            "--------------------------------------------------------------------------------\n");
     }
 
 }
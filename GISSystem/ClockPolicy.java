@@ -0,0 +1,80 @@
+/**
+ * CLOCK (second chance) replacement.
+ *
+ * Each slot has a reference bit that is set when its record is put in the
+ * pool or used. To find a victim the hand sweeps the slots in a circle,
+ * clearing set bits, and stops at the first slot whose bit is already
+ * clear. A hit only sets a bit, so it costs less than moving a list node.
+ */
+public class ClockPolicy implements ReplacementPolicy
+{
+    private boolean[] referenced; //Reference bit of each slot
+    private boolean[] filled; //Whether each slot holds a record
+    private int hand; //Next slot the hand looks at
+    private int size; //Number of filled slots
+
+    /**
+     * Creates the policy for a pool of the given capacity
+     */
+    public ClockPolicy(int capacity)
+    {
+        referenced = new boolean[capacity];
+        filled = new boolean[capacity];
+    }
+
+    public String name()
+    {
+        return "clock";
+    }
+
+    public void inserted(int slot)
+    {
+        filled[slot] = true;
+        referenced[slot] = true;
+        size++;
+    }
+
+    public void accessed(int slot)
+    {
+        referenced[slot] = true;
+    }
+
+    public int victim()
+    {
+        //Every bit is cleared by the end of one full turn, so this stops
+        while (!filled[hand] || referenced[hand])
+        {
+            referenced[hand] = false;
+            hand = (hand + 1) % referenced.length;
+        }
+        return hand;
+    }
+
+    public void evicted(int slot)
+    {
+        filled[slot] = false;
+        referenced[slot] = false;
+        size--;
+        //The replacement takes the victim's place behind the hand
+        if (slot == hand)
+        {
+            hand = (hand + 1) % referenced.length;
+        }
+    }
+
+    public int[] order()
+    {
+        //The slot just behind the hand is the last one the hand will reach
+        int[] slots = new int[size];
+        int i = 0;
+        for (int step = 1; step <= referenced.length; step++)
+        {
+            int slot = (hand - step + referenced.length) % referenced.length;
+            if (filled[slot])
+            {
+                slots[i++] = slot;
+            }
+        }
+        return slots;
+    }
+}
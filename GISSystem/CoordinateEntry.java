@@ -1,5 +1,3 @@
-import java.util.ArrayList;
-
 /**
  * A user data type that represents a longitude-latitude pair and also
  * contains file offsets
@@ -8,7 +6,7 @@ public class CoordinateEntry implements Compare2D<CoordinateEntry>
 {
     private long longitude;
     private long latitude;
-    private ArrayList<Long> locations;
+    private OffsetList locations;
     
     /**
      * Default constructor
@@ -17,7 +15,7 @@ public class CoordinateEntry implements Compare2D<CoordinateEntry>
     {
         longitude = 0;
         latitude = 0;
-        locations = new ArrayList<Long>();
+        locations = new OffsetList();
     }
     /**
      * Parameterized constructor
@@ -26,8 +24,7 @@ public class CoordinateEntry implements Compare2D<CoordinateEntry>
     {
         longitude = x;
         latitude = y;
-        locations = new ArrayList<Long>();
-        locations.add(offset);
+        locations = new OffsetList(offset);
     }
     
     // For the following methods, let P designate the Point object on which
@@ -47,22 +44,24 @@ public class CoordinateEntry implements Compare2D<CoordinateEntry>
     
     /** Return list of file offsets.
      */
-    public ArrayList<Long> locations() 
+    public OffsetList locations() 
     {
         return locations;
     }
     
     /** Append a file offset to the existing list.
      */
-    public boolean addLocation(Long offset) 
+    public boolean addLocation(long offset) 
     {
         //Do not add a duplicate offset (offsets are unique)
-        if (!locations.contains(offset))
-        {
-            locations.add(offset); 
-            return true;
-        }
-        return false;
+        return locations.add(offset);
+    }
+    
+    /** Remove a file offset from the existing list.
+     */
+    public boolean removeLocation(long offset) 
+    {
+        return locations.remove(offset);
     }
     
     /**
@@ -145,8 +144,8 @@ public class CoordinateEntry implements Compare2D<CoordinateEntry>
         {
             return Direction.SW;
         } 
-        //SE
-        else if (longitude >= newYAxis && latitude < newXAxis) 
+        //SE (including the centre point)
+        else if (longitude >= newYAxis && latitude <= newXAxis) 
         {
             return Direction.SE;
         }
@@ -205,4 +204,4 @@ public class CoordinateEntry implements Compare2D<CoordinateEntry>
         //Two Points are equal if they have the same X and Y coordinates
         return (this.longitude == p.longitude && this.latitude == p.latitude);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+/**
+ * Converts between DMS latitude/longitude text (DDMMSSX and DDDMMSSX) and
+ * signed total seconds, in a single pass over the digits.
+ *
+ * South latitudes and West longitudes are negative. Empty, "Unknown" and
+ * malformed values are reported as UNKNOWN.
+ */
+public class DMS
+{
+    /** Total seconds value used for a missing or malformed coordinate */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Converts DMS text to signed total seconds
+     * @param coord The latitude/longitude in DMS format (Ex: 0794130W)
+     * @return The latitude/longitude in total seconds, or UNKNOWN
+     */
+    public static int toTotalSeconds(String coord)
+    {
+        int len = coord.length();
+        if (len < 6)
+        {
+            return UNKNOWN;
+        }
+        int total = 0;
+        for (int i = 0; i < len - 1; i++)
+        {
+            total = accumulate(total, coord.charAt(i), len - 1 - i);
+            if (total == UNKNOWN)
+            {
+                return UNKNOWN;
+            }
+        }
+        return applyHemisphere(total, coord.charAt(len - 1));
+    }
+
+    /**
+     * Converts a DMS field of a tokenized record to signed total seconds,
+     * without creating a String
+     * @param tokens The tokenized record
+     * @param field The index of the latitude/longitude field
+     * @return The latitude/longitude in total seconds, or UNKNOWN
+     */
+    public static int toTotalSeconds(RecordTokenizer tokens, int field)
+    {
+        int len = tokens.fieldLength(field);
+        if (len < 6)
+        {
+            return UNKNOWN;
+        }
+        int total = 0;
+        for (int i = 0; i < len - 1; i++)
+        {
+            total = accumulate(total, tokens.charAt(field, i), len - 1 - i);
+            if (total == UNKNOWN)
+            {
+                return UNKNOWN;
+            }
+        }
+        return applyHemisphere(total, tokens.charAt(field, len - 1));
+    }
+
+    /**
+     * Returns the latitude in a human-readable format (Ex: 38d 26m 7s North)
+     * @param totalSeconds The latitude in total seconds, or UNKNOWN
+     */
+    public static String formatLatitude(int totalSeconds)
+    {
+        if (totalSeconds == UNKNOWN)
+        {
+            return "Unknown";
+        }
+        StringBuilder str = new StringBuilder(24);
+        str.append(Math.abs(totalSeconds) / 3600);
+        return appendMinutesSeconds(str, totalSeconds, "North", "South");
+    }
+
+    /**
+     * Returns the longitude in a human-readable format (Ex: 79d 33m 12s West).
+     * Degrees below 10 keep one leading zero (Ex: 07d 33m 12s West), since
+     * only the first of the three degree digits is trimmed.
+     * @param totalSeconds The longitude in total seconds, or UNKNOWN
+     */
+    public static String formatLongitude(int totalSeconds)
+    {
+        if (totalSeconds == UNKNOWN)
+        {
+            return "Unknown";
+        }
+        int degrees = Math.abs(totalSeconds) / 3600;
+        StringBuilder str = new StringBuilder(24);
+        if (degrees < 10)
+        {
+            str.append('0');
+        }
+        str.append(degrees);
+        return appendMinutesSeconds(str, totalSeconds, "East", "West");
+    }
+
+    /**
+     * Adds the next digit to the running total, or returns UNKNOWN if c is
+     * not a digit. digitsLeft counts the digits from this one to the end of
+     * the number: the last two are seconds, the two before them are minutes
+     * and the rest are degrees.
+     */
+    private static int accumulate(int total, char c, int digitsLeft)
+    {
+        int digit = c - '0';
+        if (digit < 0 || digit > 9)
+        {
+            return UNKNOWN;
+        }
+        if (digitsLeft > 4)
+        {
+            //Degrees: running total is still in degrees
+            return total * 10 + digit;
+        }
+        if (digitsLeft == 4)
+        {
+            return total * 3600 + digit * 600;
+        }
+        if (digitsLeft == 3)
+        {
+            return total + digit * 60;
+        }
+        if (digitsLeft == 2)
+        {
+            return total + digit * 10;
+        }
+        return total + digit;
+    }
+
+    /**
+     * Makes the total negative for South and West; UNKNOWN for any other
+     * character that is not North or East
+     */
+    private static int applyHemisphere(int total, char hemisphere)
+    {
+        if (hemisphere == 'S' || hemisphere == 'W')
+        {
+            return -total;
+        }
+        if (hemisphere == 'N' || hemisphere == 'E')
+        {
+            return total;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Appends the minutes, seconds and hemisphere of totalSeconds to str,
+     * which already holds the degrees, and returns the result
+     */
+    private static String appendMinutesSeconds(StringBuilder str, int totalSeconds,
+        String positive, String negative)
+    {
+        int abs = Math.abs(totalSeconds);
+        str.append("d ");
+        str.append(abs / 60 % 60).append("m ");
+        str.append(abs % 60).append("s ");
+        str.append(totalSeconds < 0 ? negative : positive);
+        return str.toString();
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records in a byte range of the database file in large blocks and
+ * hands each one to a RecordTokenizer, instead of reading a byte at a time
+ * with RandomAccessFile.readLine().
+ *
+ * Does not move the file pointer of the underlying RandomAccessFile.
+ */
+public class DatabaseScanner
+{
+    private static final int BLOCK_SIZE = 64 * 1024; //Initial block size in bytes
+
+    private FileChannel channel; //Channel of the database file
+    private long rangeEnd; //File position just past the range being scanned
+    private ByteBuffer block; //Current block of the file
+    private long blockStart; //File position of the first byte in the block
+    private int filled; //Number of valid bytes in the block
+    private int lineStart; //Block index of the next record
+    private long recordOffset; //File offset of the current record
+
+    /**
+     * Prepares to scan the records in the file range [start, end)
+     */
+    public DatabaseScanner(FileChannel channel, long start, long end)
+    {
+        this.channel = channel;
+        rangeEnd = end;
+        block = ByteBuffer.allocate(BLOCK_SIZE);
+        blockStart = start;
+        filled = 0;
+        lineStart = 0;
+    }
+
+    /**
+     * Tokenizes the next record in the range
+     * @param tokenizer The tokenizer to reset on the next record
+     * @return true iff there was another record
+     * @throws IOException
+     */
+    public boolean nextRecord(RecordTokenizer tokenizer) throws IOException
+    {
+        byte[] buf = block.array();
+        while (blockStart + lineStart < rangeEnd)
+        {
+            //Look for the end of the record in the current block
+            int lineEnd = lineStart;
+            while (lineEnd < filled && buf[lineEnd] != '\n')
+            {
+                lineEnd++;
+            }
+
+            //Record continues past the block, so read more of the file
+            if (lineEnd == filled && blockStart + filled < rangeEnd)
+            {
+                fillBlock();
+                buf = block.array();
+                continue;
+            }
+
+            //Drop the carriage return of a CRLF line ending
+            int recordEnd = lineEnd;
+            if (recordEnd > lineStart && buf[recordEnd - 1] == '\r')
+            {
+                recordEnd--;
+            }
+            recordOffset = blockStart + lineStart;
+            tokenizer.reset(buf, lineStart, recordEnd);
+            lineStart = lineEnd + 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the file offset of the record last passed to the tokenizer
+     */
+    public long recordOffset()
+    {
+        return recordOffset;
+    }
+
+    /**
+     * Moves the unread part of the block to the front (growing the block if
+     * a single record fills it) and reads more of the range after it
+     */
+    private void fillBlock() throws IOException
+    {
+        byte[] buf = block.array();
+        int remaining = filled - lineStart;
+        if (lineStart == 0 && filled == buf.length)
+        {
+            ByteBuffer grown = ByteBuffer.allocate(buf.length * 2);
+            System.arraycopy(buf, 0, grown.array(), 0, filled);
+            block = grown;
+        }
+        else
+        {
+            System.arraycopy(buf, lineStart, buf, 0, remaining);
+        }
+        blockStart += lineStart;
+        lineStart = 0;
+        filled = remaining;
+
+        block.clear();
+        block.position(filled);
+        block.limit((int)Math.min(block.capacity(), rangeEnd - blockStart));
+        while (block.hasRemaining())
+        {
+            int numRead = channel.read(block, blockStart + block.position());
+            if (numRead < 0)
+            {
+                //File is shorter than the range; stop at its end
+                rangeEnd = blockStart + block.position();
+                break;
+            }
+        }
+        filled = block.position();
+    }
+}
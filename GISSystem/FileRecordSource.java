@@ -0,0 +1,106 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads each record with a seek and a RandomAccessFile.readLine(), with no
+ * caching of its own.
+ *
+ * A batch of records is read instead by coalescing: offsets that lie close
+ * together are covered by a single large read through the file channel,
+ * and the records are sliced out of it, so a batch costs a few reads
+ * rather than a seek and a byte-at-a-time readLine() per record.
+ */
+public class FileRecordSource implements RecordSource
+{
+    private static final int MAX_GAP = 4096; //Largest gap between offsets read together
+    private static final int MAX_READ = 256 * 1024; //Largest single read in bytes
+    private static final int RECORD_ROOM = 1024; //Bytes read past the last offset of a read
+
+    private RandomAccessFile file; //The database file
+    private ByteBuffer buffer; //Bytes of the current coalesced read (null until needed)
+
+    /**
+     * Constructor
+     */
+    public FileRecordSource(RandomAccessFile file)
+    {
+        this.file = file;
+    }
+
+    public String readRecord(long offset) throws IOException
+    {
+        file.seek(offset);
+        return file.readLine();
+    }
+
+    public void readRecords(long[] offsets, int count, String[] records) throws IOException
+    {
+        FileChannel channel = file.getChannel();
+        if (buffer == null)
+        {
+            buffer = ByteBuffer.allocate(MAX_READ);
+        }
+        byte[] buf = buffer.array();
+        int first = 0;
+        while (first < count)
+        {
+            //Cover every following offset that is close enough with the same read
+            long start = offsets[first];
+            int last = first;
+            while (last + 1 < count && offsets[last + 1] - offsets[last] <= MAX_GAP &&
+                offsets[last + 1] + RECORD_ROOM - start <= MAX_READ)
+            {
+                last++;
+            }
+
+            //Positional reads leave the file pointer alone
+            buffer.clear();
+            buffer.limit((int)(offsets[last] + RECORD_ROOM - start));
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer, start + buffer.position()) < 0)
+                {
+                    break;
+                }
+            }
+            int filled = buffer.position();
+            boolean atEnd = buffer.hasRemaining();
+
+            for (int i = first; i <= last; i++)
+            {
+                int recordStart = (int)(offsets[i] - start);
+                int recordEnd = recordStart;
+                while (recordEnd < filled && buf[recordEnd] != '\n' && buf[recordEnd] != '\r')
+                {
+                    recordEnd++;
+                }
+                if (recordEnd < filled || atEnd)
+                {
+                    //Bytes map directly to chars, as with RandomAccessFile.readLine()
+                    records[i] = recordStart >= filled ? null :
+                        new String(buf, recordStart, recordEnd - recordStart, StandardCharsets.ISO_8859_1);
+                }
+                else
+                {
+                    //The record runs past the end of the read
+                    records[i] = readRecord(offsets[i]);
+                }
+            }
+            first = last + 1;
+        }
+    }
+
+    public void refresh()
+    {
+        //Nothing is cached
+    }
+
+    public void display(FileWriter log)
+    {
+        //Nothing is cached
+    }
+}
@@ -0,0 +1,1306 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Array-backed storage for the bucketed PR Quadtree, used by PRQuadTree in
+ * its flat storage mode.
+ *
+ * Nodes are int indices. Each node has four child indices (-1 for an empty
+ * quadrant) and a leaf count (-1 for an internal node). Internal nodes also
+ * keep the number of elements and offsets beneath them. Every leaf owns a
+ * block of bucketSize slots in the parallel x/y/entry slabs, so coordinate
+ * comparisons never dereference a CoordinateEntry. Coordinates and regions
+ * are kept on the QuadGrid, so descending is integer arithmetic. An overflow leaf at the
+ * maximum depth is moved to a larger run of blocks when it fills. Insert,
+ * find, remove and range search are loops over an explicit stack rather
+ * than recursion. Nodes and blocks freed by removals are reused. Each range
+ * search, count and iterator keeps its own stack, so any number of them can
+ * run at once while nothing changes the store; insert and remove share one
+ * path stack and must have the store to themselves. Range searches of large
+ * trees can be split into fork/join tasks, which search their subtrees
+ * recursively.
+ */
+class FlatQuadStore
+{
+    private static final int NONE = -1; //Empty child / internal node marker
+    //Quadrants in the order searches report them (NE, NW, SW, SE)
+    private static final int[] SEARCH_ORDER = {Direction.NE.ordinal(),
+        Direction.NW.ordinal(), Direction.SW.ordinal(), Direction.SE.ordinal()};
+
+    private int bucketSize; //Number of slots in each leaf's slab block
+    private int maxDepth; //Depth at which leaves become overflow buckets
+
+    //Node arrays, indexed by node
+    private int[] children; //4 child indices per node, indexed by Direction ordinal
+    private int[] leafCount; //Elements in a leaf, or NONE for an internal node
+    private int[] slabStart; //First slab slot owned by a leaf
+    private int[] leafCapacity; //Number of slab slots owned by a leaf
+    private int[] pointCount; //Elements beneath an internal node
+    private int[] offsetCount; //Offsets beneath an internal node
+    private int numNodes;
+    private int[] freeNodes; //Nodes released by removals
+    private int numFreeNodes;
+    private int root = NONE;
+
+    //Element slabs, indexed by slab slot
+    private long[] slabX; //Grid coordinates (see QuadGrid)
+    private long[] slabY;
+    private CoordinateEntry[] slabEntry;
+    private int numSlabBlocks; //Slab blocks handed out so far
+    private int[] freeBlocks; //Slab blocks released by split leaves
+    private int numFreeBlocks;
+
+    private QuadGrid grid = new QuadGrid(0, 0, 0, 0); //Grid of the world
+
+    private int parallelThreshold; //Subtree size at which find() forks (0 = never)
+
+    //Internal nodes on the path of the current insert or remove
+    private int[] nodeStack = new int[64];
+
+    /**
+     * Creates an empty store whose leaves hold up to bucketSize elements,
+     * except for overflow leaves at depth maxDepth
+     */
+    FlatQuadStore(int bucketSize, int maxDepth)
+    {
+        this.bucketSize = bucketSize;
+        this.maxDepth = maxDepth;
+        children = new int[64 * 4];
+        leafCount = new int[64];
+        slabStart = new int[64];
+        leafCapacity = new int[64];
+        pointCount = new int[64];
+        offsetCount = new int[64];
+        slabX = new long[64 * bucketSize];
+        slabY = new long[64 * bucketSize];
+        slabEntry = new CoordinateEntry[64 * bucketSize];
+        freeBlocks = new int[16];
+        freeNodes = new int[16];
+    }
+
+    /**
+     * Sets the grid whose world is the region covered by the root
+     */
+    void setWorld(QuadGrid grid)
+    {
+        this.grid = grid;
+    }
+
+    /**
+     * Pre: elem lies within the world
+     * Inserts elem, or adds its offset to the matching element
+     */
+    void insert(CoordinateEntry elem)
+    {
+        long x = grid.gridX(elem.getX());
+        long y = grid.gridY(elem.getY());
+        if (root == NONE)
+        {
+            root = newLeaf();
+            append(root, elem);
+            return;
+        }
+
+        //Internal nodes passed on the way down are kept in the node stack so
+        //their counts can be updated once the outcome is known
+        int node = root;
+        int depth = 0;
+        long xLo = 0, xHi = grid.width(), yLo = 0, yHi = grid.height();
+        while (true)
+        {
+            int count = leafCount[node];
+
+            //Leaf with room (or an overflow leaf): add the offsets to a
+            //matching element if there is one, or else add to the bucket
+            if (count != NONE && (count < bucketSize || depth >= maxDepth))
+            {
+                int start = slabStart[node];
+                for (int slot = start; slot < start + count; slot++)
+                {
+                    if (slabX[slot] == x && slabY[slot] == y)
+                    {
+                        OffsetList offsets = elem.locations();
+                        int numAdded = 0;
+                        for (int i = 0; i < offsets.size(); i++)
+                        {
+                            if (slabEntry[slot].addLocation(offsets.get(i)))
+                            {
+                                numAdded++;
+                            }
+                        }
+                        addToCounts(depth, 0, numAdded);
+                        return;
+                    }
+                }
+                append(node, elem);
+                addToCounts(depth, 1, elem.locations().size());
+                return;
+            }
+
+            //Full leaf: turn it into an internal node and keep descending
+            if (count != NONE)
+            {
+                split(node, xLo, xHi, yLo, yHi);
+            }
+            if (depth == nodeStack.length)
+            {
+                nodeStack = grow(nodeStack, depth * 2);
+            }
+            nodeStack[depth] = node;
+
+            //Internal node: take the quadrant containing elem
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            int quadrant = QuadGrid.quadrant(x, y, xMid, yMid);
+            int child = children[node * 4 + quadrant];
+            if (child == NONE)
+            {
+                child = newLeaf();
+                children[node * 4 + quadrant] = child;
+                append(child, elem);
+                addToCounts(depth + 1, 1, elem.locations().size());
+                return;
+            }
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.SE.ordinal())
+            {
+                xLo = xMid;
+            }
+            else
+            {
+                xHi = xMid;
+            }
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.NW.ordinal())
+            {
+                yLo = yMid;
+            }
+            else
+            {
+                yHi = yMid;
+            }
+            node = child;
+            depth++;
+        }
+    }
+
+    /**
+     * Adds a sorted batch to the tree in one top-down pass, leaving the tree
+     * that inserting its elements one at a time would
+     */
+    void bulkLoad(MortonBatch batch)
+    {
+        root = bulkLoadHelper(root, batch, 0, batch.size(), 0, grid.width(), 0, grid.height(), 0);
+    }
+
+    /**
+     * Adds positions [start, end) of the batch, which lie in the region of
+     * node (NONE for an empty region) at the given depth, to its subtree and
+     * returns the subtree's node
+     */
+    private int bulkLoadHelper(int node, MortonBatch batch, int start, int end,
+        long xLo, long xHi, long yLo, long yHi, int depth)
+    {
+        if (start == end)
+        {
+            return node;
+        }
+
+        //Empty region or leaf: keep it as one leaf unless the inserts would split it
+        if (node == NONE || leafCount[node] != NONE)
+        {
+            int numHeld = node == NONE ? 0 : leafCount[node];
+            if (depth >= maxDepth || !batch.splits(start, end, numHeld, bucketSize))
+            {
+                if (node == NONE)
+                {
+                    node = newLeaf();
+                }
+                batch.sortByArrival(start, end);
+                for (int pos = start; pos < end; pos++)
+                {
+                    if (batch.isNew(pos))
+                    {
+                        append(node, batch.get(pos));
+                    }
+                    else
+                    {
+                        batch.mergeRepeat(pos);
+                    }
+                }
+                return node;
+            }
+            if (node == NONE)
+            {
+                node = newNode();
+                leafCount[node] = NONE;
+            }
+            else
+            {
+                split(node, xLo, xHi, yLo, yHi);
+            }
+        }
+
+        int[] groupEnds = new int[4];
+        batch.partition(start, end, depth, xLo, xHi, yLo, yHi, groupEnds);
+        long xMid = (xLo + xHi) >> 1;
+        long yMid = (yLo + yHi) >> 1;
+        int groupStart = start;
+        for (int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            boolean east = quadrant == Direction.NE.ordinal() || quadrant == Direction.SE.ordinal();
+            boolean north = quadrant == Direction.NE.ordinal() || quadrant == Direction.NW.ordinal();
+            //The child may grow the node arrays, so assign after building it
+            int child = bulkLoadHelper(children[node * 4 + quadrant], batch, groupStart,
+                groupEnds[quadrant], east ? xMid : xLo, east ? xHi : xMid,
+                north ? yMid : yLo, north ? yHi : yMid, depth + 1);
+            children[node * 4 + quadrant] = child;
+            groupStart = groupEnds[quadrant];
+        }
+        pointCount[node] = 0;
+        offsetCount[node] = 0;
+        for (int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            addSubtreeCounts(node, children[node * 4 + quadrant]);
+        }
+        return node;
+    }
+
+    /**
+     * Removes the element at the same coordinates as elem, collapsing
+     * internal nodes whose children fit in one leaf again
+     * @return The removed element, or null if there was none
+     */
+    CoordinateEntry remove(CoordinateEntry elem)
+    {
+        long x = grid.gridX(elem.getX());
+        long y = grid.gridY(elem.getY());
+
+        //Descend to the leaf, remembering the path in the node stack
+        int node = root;
+        int depth = 0;
+        long xLo = 0, xHi = grid.width(), yLo = 0, yHi = grid.height();
+        while (node != NONE && leafCount[node] == NONE)
+        {
+            if (x < xLo || x > xHi || y < yLo || y > yHi)
+            {
+                return null;
+            }
+            if (depth == nodeStack.length)
+            {
+                nodeStack = grow(nodeStack, depth * 2);
+            }
+            nodeStack[depth++] = node;
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            int quadrant = QuadGrid.quadrant(x, y, xMid, yMid);
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.SE.ordinal())
+            {
+                xLo = xMid;
+            }
+            else
+            {
+                xHi = xMid;
+            }
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.NW.ordinal())
+            {
+                yLo = yMid;
+            }
+            else
+            {
+                yHi = yMid;
+            }
+            node = children[node * 4 + quadrant];
+        }
+        if (node == NONE)
+        {
+            return null;
+        }
+
+        //Take the element out of the leaf, keeping the rest in order
+        int start = slabStart[node];
+        int end = start + leafCount[node];
+        int slot = start;
+        while (slot < end && (slabX[slot] != x || slabY[slot] != y))
+        {
+            slot++;
+        }
+        if (slot == end)
+        {
+            return null;
+        }
+        CoordinateEntry removed = slabEntry[slot];
+        addToCounts(depth, -1, -removed.locations().size());
+        System.arraycopy(slabX, slot + 1, slabX, slot, end - slot - 1);
+        System.arraycopy(slabY, slot + 1, slabY, slot, end - slot - 1);
+        System.arraycopy(slabEntry, slot + 1, slabEntry, slot, end - slot - 1);
+        slabEntry[end - 1] = null;
+        leafCount[node]--;
+
+        //Walk back up, unlinking empty leaves and collapsing parents, until
+        //a parent stays internal
+        while (depth > 0)
+        {
+            int parent = nodeStack[--depth];
+            if (leafCount[node] == 0)
+            {
+                for (int q = 0; q < 4; q++)
+                {
+                    if (children[parent * 4 + q] == node)
+                    {
+                        children[parent * 4 + q] = NONE;
+                    }
+                }
+                freeNode(node);
+            }
+            if (!collapse(parent))
+            {
+                return removed;
+            }
+            node = parent;
+        }
+        if (leafCount[root] == 0)
+        {
+            freeNode(root);
+            root = NONE;
+        }
+        return removed;
+    }
+
+    /**
+     * Pre: elem is in the store and has just lost one offset
+     * Decrements the offset counts of the internal nodes above elem
+     */
+    void offsetRemoved(CoordinateEntry elem)
+    {
+        long x = grid.gridX(elem.getX());
+        long y = grid.gridY(elem.getY());
+        int node = root;
+        long xLo = 0, xHi = grid.width(), yLo = 0, yHi = grid.height();
+        while (leafCount[node] == NONE)
+        {
+            offsetCount[node]--;
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            int quadrant = QuadGrid.quadrant(x, y, xMid, yMid);
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.SE.ordinal())
+            {
+                xLo = xMid;
+            }
+            else
+            {
+                xHi = xMid;
+            }
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.NW.ordinal())
+            {
+                yLo = yMid;
+            }
+            else
+            {
+                yHi = yMid;
+            }
+            node = children[node * 4 + quadrant];
+        }
+    }
+
+    /**
+     * Adds the number of elements and offsets in the grid rectangle
+     * [xLo, xHi] x [yLo, yHi] to counts[0] and counts[1]. Internal nodes
+     * whose regions lie inside the rectangle contribute their subtree counts
+     * without being descended.
+     */
+    void count(long xLo, long xHi, long yLo, long yHi, long[] counts)
+    {
+        if (root == NONE)
+        {
+            return;
+        }
+        TraversalStack stack = new TraversalStack();
+        stack.push(root, 0, grid.width(), 0, grid.height());
+        while (stack.top > 0)
+        {
+            int top = --stack.top;
+            int node = stack.nodes[top];
+            long nxLo = stack.bounds[top * 4];
+            long nxHi = stack.bounds[top * 4 + 1];
+            long nyLo = stack.bounds[top * 4 + 2];
+            long nyHi = stack.bounds[top * 4 + 3];
+
+            //Region does not intersect the query rectangle
+            if (nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+            {
+                continue;
+            }
+            boolean contained = nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi;
+
+            int count = leafCount[node];
+            if (count == NONE && contained)
+            {
+                counts[0] += pointCount[node];
+                counts[1] += offsetCount[node];
+                continue;
+            }
+            if (count != NONE)
+            {
+                int start = slabStart[node];
+                for (int slot = start; slot < start + count; slot++)
+                {
+                    if (contained || (slabX[slot] >= xLo && slabX[slot] <= xHi &&
+                        slabY[slot] >= yLo && slabY[slot] <= yHi))
+                    {
+                        counts[0]++;
+                        counts[1] += slabEntry[slot].locations().size();
+                    }
+                }
+                continue;
+            }
+
+            long xMid = (nxLo + nxHi) >> 1;
+            long yMid = (nyLo + nyHi) >> 1;
+            int base = node * 4;
+            if (children[base + Direction.NE.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.NE.ordinal()], xMid, nxHi, yMid, nyHi);
+            }
+            if (children[base + Direction.NW.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.NW.ordinal()], nxLo, xMid, yMid, nyHi);
+            }
+            if (children[base + Direction.SW.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.SW.ordinal()], nxLo, xMid, nyLo, yMid);
+            }
+            if (children[base + Direction.SE.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.SE.ordinal()], xMid, nxHi, nyLo, yMid);
+            }
+        }
+    }
+
+    /**
+     * Adds to the counts of the internal nodes in nodeStack[0, pathLength)
+     */
+    private void addToCounts(int pathLength, int points, int offsets)
+    {
+        for (int i = 0; i < pathLength; i++)
+        {
+            pointCount[nodeStack[i]] += points;
+            offsetCount[nodeStack[i]] += offsets;
+        }
+    }
+
+    /**
+     * Adds the elements and offsets beneath child (NONE for no child) to the
+     * counts of node
+     */
+    private void addSubtreeCounts(int node, int child)
+    {
+        if (child == NONE)
+        {
+            return;
+        }
+        int count = leafCount[child];
+        if (count == NONE)
+        {
+            pointCount[node] += pointCount[child];
+            offsetCount[node] += offsetCount[child];
+            return;
+        }
+        pointCount[node] += count;
+        int start = slabStart[child];
+        for (int slot = start; slot < start + count; slot++)
+        {
+            offsetCount[node] += slabEntry[slot].locations().size();
+        }
+    }
+
+    /**
+     * Turns an internal node whose children are all leaves holding no more
+     * than bucketSize elements into a leaf holding those elements, in the
+     * order a range search reports them
+     * @return true iff the node was collapsed
+     */
+    private boolean collapse(int node)
+    {
+        int total = 0;
+        for (int q = 0; q < 4; q++)
+        {
+            int child = children[node * 4 + q];
+            if (child == NONE)
+            {
+                continue;
+            }
+            //An internal child holds more than a leaf
+            if (leafCount[child] == NONE)
+            {
+                return false;
+            }
+            total += leafCount[child];
+        }
+        if (total > bucketSize)
+        {
+            return false;
+        }
+
+        leafCount[node] = 0;
+        slabStart[node] = allocateBlocks(1);
+        leafCapacity[node] = bucketSize;
+        for (int i = 0; i < 4; i++)
+        {
+            int q = SEARCH_ORDER[i];
+            int child = children[node * 4 + q];
+            if (child == NONE)
+            {
+                continue;
+            }
+            int childStart = slabStart[child];
+            for (int slot = childStart; slot < childStart + leafCount[child]; slot++)
+            {
+                append(node, slabEntry[slot]);
+            }
+            freeNode(child);
+            children[node * 4 + q] = NONE;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the element at the same coordinates as elem, or null
+     */
+    CoordinateEntry find(CoordinateEntry elem)
+    {
+        long x = grid.gridX(elem.getX());
+        long y = grid.gridY(elem.getY());
+        int node = root;
+        long xLo = 0, xHi = grid.width(), yLo = 0, yHi = grid.height();
+        while (node != NONE)
+        {
+            int count = leafCount[node];
+            if (count != NONE)
+            {
+                int start = slabStart[node];
+                for (int slot = start; slot < start + count; slot++)
+                {
+                    if (slabX[slot] == x && slabY[slot] == y)
+                    {
+                        return slabEntry[slot];
+                    }
+                }
+                return null;
+            }
+
+            //Outside the node's region
+            if (x < xLo || x > xHi || y < yLo || y > yHi)
+            {
+                return null;
+            }
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            int quadrant = QuadGrid.quadrant(x, y, xMid, yMid);
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.SE.ordinal())
+            {
+                xLo = xMid;
+            }
+            else
+            {
+                xHi = xMid;
+            }
+            if (quadrant == Direction.NE.ordinal() || quadrant == Direction.NW.ordinal())
+            {
+                yLo = yMid;
+            }
+            else
+            {
+                yHi = yMid;
+            }
+            node = children[node * 4 + quadrant];
+        }
+        return null;
+    }
+
+    /**
+     * Sets the number of elements a subtree must hold for find() to search
+     * its quadrants as separate fork/join tasks (0 = never)
+     */
+    void setParallelThreshold(int threshold)
+    {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Adds every element in the grid rectangle [xLo, xHi] x [yLo, yHi] to
+     * bucket, in the same order as the recursive search (NE, NW, SW, SE)
+     */
+    void find(long xLo, long xHi, long yLo, long yHi, ArrayList<CoordinateEntry> bucket)
+    {
+        if (root == NONE)
+        {
+            return;
+        }
+        if (parallelThreshold > 0 && leafCount[root] == NONE && pointCount[root] >= parallelThreshold)
+        {
+            bucket.addAll(ForkJoinPool.commonPool().invoke(
+                new SearchTask(root, xLo, xHi, yLo, yHi, 0, grid.width(), 0, grid.height())));
+            return;
+        }
+        TraversalStack stack = new TraversalStack();
+        stack.push(root, 0, grid.width(), 0, grid.height());
+        while (stack.top > 0)
+        {
+            int top = --stack.top;
+            int node = stack.nodes[top];
+            long nxLo = stack.bounds[top * 4];
+            long nxHi = stack.bounds[top * 4 + 1];
+            long nyLo = stack.bounds[top * 4 + 2];
+            long nyHi = stack.bounds[top * 4 + 3];
+
+            //Region does not intersect the query rectangle
+            if (nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+            {
+                continue;
+            }
+            boolean contained = nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi;
+
+            int count = leafCount[node];
+            if (count != NONE)
+            {
+                int start = slabStart[node];
+                for (int slot = start; slot < start + count; slot++)
+                {
+                    if (contained || (slabX[slot] >= xLo && slabX[slot] <= xHi &&
+                        slabY[slot] >= yLo && slabY[slot] <= yHi))
+                    {
+                        bucket.add(slabEntry[slot]);
+                    }
+                }
+                continue;
+            }
+
+            //Push quadrants in reverse so they are popped NE, NW, SW, SE
+            long xMid = (nxLo + nxHi) >> 1;
+            long yMid = (nyLo + nyHi) >> 1;
+            int base = node * 4;
+            if (children[base + Direction.SE.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.SE.ordinal()], xMid, nxHi, nyLo, yMid);
+            }
+            if (children[base + Direction.SW.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.SW.ordinal()], nxLo, xMid, nyLo, yMid);
+            }
+            if (children[base + Direction.NW.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.NW.ordinal()], nxLo, xMid, yMid, nyHi);
+            }
+            if (children[base + Direction.NE.ordinal()] != NONE)
+            {
+                stack.push(children[base + Direction.NE.ordinal()], xMid, nxHi, yMid, nyHi);
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements in the grid rectangle
+     * [xLo, xHi] x [yLo, yHi], in the same order as find(). Elements are
+     * found as the iterator advances; the store must not be changed while it
+     * is in use.
+     */
+    Iterator<CoordinateEntry> iterator(long xLo, long xHi, long yLo, long yHi)
+    {
+        return new RegionIterator(xLo, xHi, yLo, yHi);
+    }
+
+    /**
+     * Recursive form of find() for the subtree at node, whose region is
+     * [nxLo, nxHi] x [nyLo, nyHi]; used by fork/join tasks
+     */
+    private void findRecursive(int node, long xLo, long xHi, long yLo, long yHi,
+        long nxLo, long nxHi, long nyLo, long nyHi, ArrayList<CoordinateEntry> bucket)
+    {
+        if (node == NONE || nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+        {
+            return;
+        }
+        int count = leafCount[node];
+        if (count != NONE)
+        {
+            boolean contained = nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi;
+            int start = slabStart[node];
+            for (int slot = start; slot < start + count; slot++)
+            {
+                if (contained || (slabX[slot] >= xLo && slabX[slot] <= xHi &&
+                    slabY[slot] >= yLo && slabY[slot] <= yHi))
+                {
+                    bucket.add(slabEntry[slot]);
+                }
+            }
+            return;
+        }
+        long xMid = (nxLo + nxHi) >> 1;
+        long yMid = (nyLo + nyHi) >> 1;
+        int base = node * 4;
+        findRecursive(children[base + Direction.NE.ordinal()],
+            xLo, xHi, yLo, yHi, xMid, nxHi, yMid, nyHi, bucket);
+        findRecursive(children[base + Direction.NW.ordinal()],
+            xLo, xHi, yLo, yHi, nxLo, xMid, yMid, nyHi, bucket);
+        findRecursive(children[base + Direction.SW.ordinal()],
+            xLo, xHi, yLo, yHi, nxLo, xMid, nyLo, yMid, bucket);
+        findRecursive(children[base + Direction.SE.ordinal()],
+            xLo, xHi, yLo, yHi, xMid, nxHi, nyLo, yMid, bucket);
+    }
+
+    /**
+     * Range search of one subtree, run as a fork/join task
+     */
+    @SuppressWarnings("serial")
+    private class SearchTask extends RecursiveTask<ArrayList<CoordinateEntry>>
+    {
+        private int node; //Root of the subtree to search
+        private long xLo, xHi, yLo, yHi; //Query rectangle
+        private long nxLo, nxHi, nyLo, nyHi; //Region covered by node
+
+        SearchTask(int node, long xLo, long xHi, long yLo, long yHi,
+            long nxLo, long nxHi, long nyLo, long nyHi)
+        {
+            this.node = node;
+            this.xLo = xLo;
+            this.xHi = xHi;
+            this.yLo = yLo;
+            this.yHi = yHi;
+            this.nxLo = nxLo;
+            this.nxHi = nxHi;
+            this.nyLo = nyLo;
+            this.nyHi = nyHi;
+        }
+
+        protected ArrayList<CoordinateEntry> compute()
+        {
+            ArrayList<CoordinateEntry> bucket = new ArrayList<CoordinateEntry>();
+
+            //Leaves, small subtrees and regions outside the rectangle are
+            //searched on this thread
+            if (node == NONE || leafCount[node] != NONE || pointCount[node] < parallelThreshold ||
+                nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+            {
+                findRecursive(node, xLo, xHi, yLo, yHi, nxLo, nxHi, nyLo, nyHi, bucket);
+                return bucket;
+            }
+
+            //Fork NW, SW and SE, search NE here, then join in search order
+            long xMid = (nxLo + nxHi) >> 1;
+            long yMid = (nyLo + nyHi) >> 1;
+            int base = node * 4;
+            SearchTask nw = new SearchTask(children[base + Direction.NW.ordinal()],
+                xLo, xHi, yLo, yHi, nxLo, xMid, yMid, nyHi);
+            SearchTask sw = new SearchTask(children[base + Direction.SW.ordinal()],
+                xLo, xHi, yLo, yHi, nxLo, xMid, nyLo, yMid);
+            SearchTask se = new SearchTask(children[base + Direction.SE.ordinal()],
+                xLo, xHi, yLo, yHi, xMid, nxHi, nyLo, yMid);
+            nw.fork();
+            sw.fork();
+            se.fork();
+            bucket.addAll(new SearchTask(children[base + Direction.NE.ordinal()],
+                xLo, xHi, yLo, yHi, xMid, nxHi, yMid, nyHi).compute());
+            bucket.addAll(nw.join());
+            bucket.addAll(sw.join());
+            bucket.addAll(se.join());
+            return bucket;
+        }
+    }
+
+    /**
+     * Lazy range search; walks the tree with its own explicit stack, one
+     * leaf at a time
+     */
+    private class RegionIterator implements Iterator<CoordinateEntry>
+    {
+        private long xLo, xHi, yLo, yHi; //Query rectangle
+        private TraversalStack stack = new TraversalStack(); //Nodes still to visit
+        private int slot; //Next slab slot of the current leaf
+        private int slotEnd; //Slab slot just past the current leaf
+        private boolean contained; //Current leaf lies inside the rectangle
+        private CoordinateEntry next; //Next element to return, or null
+
+        RegionIterator(long xLo, long xHi, long yLo, long yHi)
+        {
+            this.xLo = xLo;
+            this.xHi = xHi;
+            this.yLo = yLo;
+            this.yHi = yHi;
+            if (root != NONE)
+            {
+                stack.push(root, 0, grid.width(), 0, grid.height());
+            }
+            advance();
+        }
+
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        public CoordinateEntry next()
+        {
+            if (next == null)
+            {
+                throw new NoSuchElementException();
+            }
+            CoordinateEntry elem = next;
+            advance();
+            return elem;
+        }
+
+        /**
+         * Finds the next element in the rectangle, opening leaves and
+         * expanding internal nodes until one is found or the stack is empty
+         */
+        private void advance()
+        {
+            while (true)
+            {
+                while (slot < slotEnd)
+                {
+                    int current = slot++;
+                    if (contained || (slabX[current] >= xLo && slabX[current] <= xHi &&
+                        slabY[current] >= yLo && slabY[current] <= yHi))
+                    {
+                        next = slabEntry[current];
+                        return;
+                    }
+                }
+                if (stack.top == 0)
+                {
+                    next = null;
+                    return;
+                }
+
+                int top = --stack.top;
+                int node = stack.nodes[top];
+                long nxLo = stack.bounds[top * 4];
+                long nxHi = stack.bounds[top * 4 + 1];
+                long nyLo = stack.bounds[top * 4 + 2];
+                long nyHi = stack.bounds[top * 4 + 3];
+                if (nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+                {
+                    continue;
+                }
+
+                int count = leafCount[node];
+                if (count != NONE)
+                {
+                    contained = nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi;
+                    slot = slabStart[node];
+                    slotEnd = slot + count;
+                    continue;
+                }
+
+                //Push quadrants in reverse so they are visited NE, NW, SW, SE
+                long xMid = (nxLo + nxHi) >> 1;
+                long yMid = (nyLo + nyHi) >> 1;
+                int base = node * 4;
+                if (children[base + Direction.SE.ordinal()] != NONE)
+                {
+                    stack.push(children[base + Direction.SE.ordinal()], xMid, nxHi, nyLo, yMid);
+                }
+                if (children[base + Direction.SW.ordinal()] != NONE)
+                {
+                    stack.push(children[base + Direction.SW.ordinal()], nxLo, xMid, nyLo, yMid);
+                }
+                if (children[base + Direction.NW.ordinal()] != NONE)
+                {
+                    stack.push(children[base + Direction.NW.ordinal()], nxLo, xMid, yMid, nyHi);
+                }
+                if (children[base + Direction.NE.ordinal()] != NONE)
+                {
+                    stack.push(children[base + Direction.NE.ordinal()], xMid, nxHi, yMid, nyHi);
+                }
+            }
+        }
+    }
+
+    /**
+     * Nodes still to visit in a region traversal, with the region of each.
+     * Every traversal makes its own, so traversals never disturb each other.
+     */
+    private static class TraversalStack
+    {
+        int[] nodes = new int[16];
+        long[] bounds = new long[16 * 4]; //xLo, xHi, yLo, yHi of each node
+        int top; //Number of nodes on the stack
+
+        /**
+         * Pushes a node and its region
+         */
+        void push(int node, long xLo, long xHi, long yLo, long yHi)
+        {
+            if (top == nodes.length)
+            {
+                nodes = grow(nodes, top * 2);
+                long[] newBounds = new long[top * 2 * 4];
+                System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+                bounds = newBounds;
+            }
+            nodes[top] = node;
+            bounds[top * 4] = xLo;
+            bounds[top * 4 + 1] = xHi;
+            bounds[top * 4 + 2] = yLo;
+            bounds[top * 4 + 3] = yHi;
+            top++;
+        }
+    }
+
+    /**
+     * Returns the (up to) k elements nearest to (x, y), closest first,
+     * expanding nodes best-first by the distance to their regions
+     */
+    ArrayList<CoordinateEntry> findNearest(long x, long y, int k)
+    {
+        ArrayList<CoordinateEntry> nearest = new ArrayList<CoordinateEntry>();
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        long sequence = 0;
+        if (root != NONE && k > 0)
+        {
+            queue.add(new Candidate(regionDistance(x, y, 0, grid.width(), 0, grid.height()),
+                sequence++, root, NONE, 0, grid.width(), 0, grid.height()));
+        }
+
+        while (!queue.isEmpty() && nearest.size() < k)
+        {
+            Candidate next = queue.poll();
+            if (next.slot != NONE)
+            {
+                nearest.add(slabEntry[next.slot]);
+                continue;
+            }
+
+            int node = next.node;
+            int count = leafCount[node];
+            if (count != NONE)
+            {
+                int start = slabStart[node];
+                for (int slot = start; slot < start + count; slot++)
+                {
+                    double dx = grid.worldX(slabX[slot]) - x;
+                    double dy = grid.worldY(slabY[slot]) - y;
+                    queue.add(new Candidate(dx * dx + dy * dy, sequence++, NONE, slot, 0, 0, 0, 0));
+                }
+                continue;
+            }
+
+            long xMid = (next.xLo + next.xHi) >> 1;
+            long yMid = (next.yLo + next.yHi) >> 1;
+            int base = node * 4;
+            int child = children[base + Direction.NE.ordinal()];
+            if (child != NONE)
+            {
+                queue.add(new Candidate(regionDistance(x, y, xMid, next.xHi, yMid, next.yHi),
+                    sequence++, child, NONE, xMid, next.xHi, yMid, next.yHi));
+            }
+            child = children[base + Direction.NW.ordinal()];
+            if (child != NONE)
+            {
+                queue.add(new Candidate(regionDistance(x, y, next.xLo, xMid, yMid, next.yHi),
+                    sequence++, child, NONE, next.xLo, xMid, yMid, next.yHi));
+            }
+            child = children[base + Direction.SW.ordinal()];
+            if (child != NONE)
+            {
+                queue.add(new Candidate(regionDistance(x, y, next.xLo, xMid, next.yLo, yMid),
+                    sequence++, child, NONE, next.xLo, xMid, next.yLo, yMid));
+            }
+            child = children[base + Direction.SE.ordinal()];
+            if (child != NONE)
+            {
+                queue.add(new Candidate(regionDistance(x, y, xMid, next.xHi, next.yLo, yMid),
+                    sequence++, child, NONE, xMid, next.xHi, next.yLo, yMid));
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns true iff the store holds no nodes
+     */
+    boolean isEmpty()
+    {
+        return root == NONE;
+    }
+
+    /**
+     * Writes the tree in the same format as PRQuadTree.display()
+     */
+    void display(FileWriter out) throws IOException
+    {
+        displayHelper(root, "", out);
+    }
+
+    /**
+     * Recursive helper for display(); children are printed SW SE, node, NE NW
+     */
+    private void displayHelper(int node, String padding, FileWriter out) throws IOException
+    {
+        if (node == NONE)
+        {
+            out.write(padding + "*\n");
+            return;
+        }
+        int count = leafCount[node];
+        if (count == NONE)
+        {
+            displayHelper(children[node * 4 + Direction.SW.ordinal()], padding + "   ", out);
+            displayHelper(children[node * 4 + Direction.SE.ordinal()], padding + "   ", out);
+        }
+        out.write(padding);
+        if (count != NONE)
+        {
+            int start = slabStart[node];
+            for (int slot = start; slot < start + count; slot++)
+            {
+                out.write(slabEntry[slot] + " ");
+            }
+            out.write("\n");
+        }
+        else
+        {
+            out.write("@\n");
+            displayHelper(children[node * 4 + Direction.NE.ordinal()], padding + "   ", out);
+            displayHelper(children[node * 4 + Direction.NW.ordinal()], padding + "   ", out);
+        }
+    }
+
+    /**
+     * Returns the squared distance from world point (x, y) to the closest
+     * point of a grid region
+     */
+    private double regionDistance(long x, long y, long xLo, long xHi, long yLo, long yHi)
+    {
+        double dx = Math.max(Math.max(grid.worldX(xLo) - x, x - grid.worldX(xHi)), 0.0);
+        double dy = Math.max(Math.max(grid.worldY(yLo) - y, y - grid.worldY(yHi)), 0.0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Turns a full leaf into an internal node, moving its elements into new
+     * child leaves
+     */
+    private void split(int node, long xLo, long xHi, long yLo, long yHi)
+    {
+        int start = slabStart[node];
+        int count = leafCount[node];
+        leafCount[node] = NONE;
+        pointCount[node] = count;
+        offsetCount[node] = 0;
+        for (int slot = start; slot < start + count; slot++)
+        {
+            offsetCount[node] += slabEntry[slot].locations().size();
+        }
+
+        long xMid = (xLo + xHi) >> 1;
+        long yMid = (yLo + yHi) >> 1;
+        for (int slot = start; slot < start + count; slot++)
+        {
+            int quadrant = QuadGrid.quadrant(slabX[slot], slabY[slot], xMid, yMid);
+            int child = children[node * 4 + quadrant];
+            if (child == NONE)
+            {
+                child = newLeaf();
+                children[node * 4 + quadrant] = child;
+            }
+            append(child, slabEntry[slot]);
+        }
+        releaseBlock(start);
+    }
+
+    /**
+     * Adds elem to the end of a leaf's slab block
+     */
+    private void append(int leaf, CoordinateEntry elem)
+    {
+        //Full overflow leaf: move it to a run of blocks twice as long
+        if (leafCount[leaf] == leafCapacity[leaf])
+        {
+            int oldStart = slabStart[leaf];
+            int oldBlocks = leafCapacity[leaf] / bucketSize;
+            int newStart = allocateBlocks(oldBlocks * 2);
+            System.arraycopy(slabX, oldStart, slabX, newStart, leafCount[leaf]);
+            System.arraycopy(slabY, oldStart, slabY, newStart, leafCount[leaf]);
+            System.arraycopy(slabEntry, oldStart, slabEntry, newStart, leafCount[leaf]);
+            releaseBlocks(oldStart, oldBlocks);
+            slabStart[leaf] = newStart;
+            leafCapacity[leaf] = oldBlocks * 2 * bucketSize;
+        }
+        int slot = slabStart[leaf] + leafCount[leaf];
+        slabX[slot] = grid.gridX(elem.getX());
+        slabY[slot] = grid.gridY(elem.getY());
+        slabEntry[slot] = elem;
+        leafCount[leaf]++;
+    }
+
+    /**
+     * Allocates an empty leaf node with its own slab block
+     */
+    private int newLeaf()
+    {
+        int node = newNode();
+        slabStart[node] = allocateBlocks(1);
+        leafCapacity[node] = bucketSize;
+        return node;
+    }
+
+    /**
+     * Returns a node, and the slab blocks of a leaf, for reuse
+     */
+    private void freeNode(int node)
+    {
+        if (leafCount[node] != NONE)
+        {
+            releaseBlocks(slabStart[node], leafCapacity[node] / bucketSize);
+        }
+        if (numFreeNodes == freeNodes.length)
+        {
+            freeNodes = grow(freeNodes, numFreeNodes * 2);
+        }
+        freeNodes[numFreeNodes++] = node;
+    }
+
+    /**
+     * Allocates a node with no children and no slab block
+     */
+    private int newNode()
+    {
+        if (numFreeNodes > 0)
+        {
+            int node = freeNodes[--numFreeNodes];
+            for (int q = 0; q < 4; q++)
+            {
+                children[node * 4 + q] = NONE;
+            }
+            leafCount[node] = 0;
+            pointCount[node] = 0;
+            offsetCount[node] = 0;
+            return node;
+        }
+        if (numNodes == leafCount.length)
+        {
+            int capacity = numNodes * 2;
+            children = grow(children, capacity * 4);
+            leafCount = grow(leafCount, capacity);
+            slabStart = grow(slabStart, capacity);
+            leafCapacity = grow(leafCapacity, capacity);
+            pointCount = grow(pointCount, capacity);
+            offsetCount = grow(offsetCount, capacity);
+        }
+        int node = numNodes++;
+        for (int q = 0; q < 4; q++)
+        {
+            children[node * 4 + q] = NONE;
+        }
+        leafCount[node] = 0;
+        return node;
+    }
+
+    /**
+     * Returns the first slot of numBlocks unused, contiguous slab blocks.
+     * Single blocks are reused from the free list; longer runs are always
+     * taken from the end of the slabs.
+     */
+    private int allocateBlocks(int numBlocks)
+    {
+        if (numBlocks == 1 && numFreeBlocks > 0)
+        {
+            return freeBlocks[--numFreeBlocks];
+        }
+        int start = numSlabBlocks * bucketSize;
+        int end = start + numBlocks * bucketSize;
+        if (end > slabX.length)
+        {
+            int capacity = Math.max(slabX.length * 2, end);
+            long[] newX = new long[capacity];
+            long[] newY = new long[capacity];
+            CoordinateEntry[] newEntry = new CoordinateEntry[capacity];
+            System.arraycopy(slabX, 0, newX, 0, slabX.length);
+            System.arraycopy(slabY, 0, newY, 0, slabY.length);
+            System.arraycopy(slabEntry, 0, newEntry, 0, slabEntry.length);
+            slabX = newX;
+            slabY = newY;
+            slabEntry = newEntry;
+        }
+        numSlabBlocks += numBlocks;
+        return start;
+    }
+
+    /**
+     * Returns the numBlocks slab blocks starting at slot start to the free list
+     */
+    private void releaseBlocks(int start, int numBlocks)
+    {
+        for (int block = 0; block < numBlocks; block++)
+        {
+            releaseBlock(start + block * bucketSize);
+        }
+    }
+
+    /**
+     * Returns a slab block to the free list
+     */
+    private void releaseBlock(int start)
+    {
+        for (int slot = start; slot < start + bucketSize; slot++)
+        {
+            slabEntry[slot] = null;
+        }
+        if (numFreeBlocks == freeBlocks.length)
+        {
+            freeBlocks = grow(freeBlocks, numFreeBlocks * 2);
+        }
+        freeBlocks[numFreeBlocks++] = start;
+    }
+
+    /**
+     * Returns a copy of array with the given length
+     */
+    private static int[] grow(int[] array, int length)
+    {
+        int[] grown = new int[length];
+        System.arraycopy(array, 0, grown, 0, Math.min(array.length, length));
+        return grown;
+    }
+
+    /**
+     * Node or slab slot waiting in the nearest-neighbour priority queue
+     */
+    private static class Candidate implements Comparable<Candidate>
+    {
+        double distance; //Squared distance from the query point
+        long sequence; //Queue order, used to break ties
+        int node; //Node to expand, or NONE
+        int slot; //Slab slot to report, or NONE
+        long xLo, xHi, yLo, yHi; //Grid region covered by node
+
+        Candidate(double distance, long sequence, int node, int slot,
+            long xLo, long xHi, long yLo, long yHi)
+        {
+            this.distance = distance;
+            this.sequence = sequence;
+            this.node = node;
+            this.slot = slot;
+            this.xLo = xLo;
+            this.xHi = xHi;
+            this.yLo = yLo;
+            this.yHi = yHi;
+        }
+
+        public int compareTo(Candidate other)
+        {
+            if (distance != other.distance)
+            {
+                return distance < other.distance ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * A TinyLFU admission filter for the BufferPool.
+ *
+ * A count-min sketch estimates how often each offset has been asked for:
+ * every request bumps four 4-bit counters (picked by four hashes of the
+ * offset, sixteen counters to a long), and the estimate is the smallest of
+ * them. Once the number of requests reaches ten times the pool capacity,
+ * every counter is halved so that old popularity fades. When the pool is
+ * full, a missed record only displaces the policy's victim if it has been
+ * asked for more often, which keeps one-off records from a large scan out
+ * of a pool full of frequently used ones.
+ */
+public class FrequencySketch
+{
+    private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L,
+        0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+    private static final int MAX_COUNT = 15; //Largest value of a 4-bit counter
+    private static final long HALVE_MASK = 0x7777777777777777L; //Clears the bit shifted in
+
+    private long[] table; //Counters, sixteen to a long
+    private int indexMask; //Number of counters - 1
+    private int sampleSize; //Requests between halvings
+    private int requests; //Requests counted since the last halving
+
+    /**
+     * Creates a sketch sized for a pool of the given capacity
+     */
+    public FrequencySketch(int capacity)
+    {
+        int counters = Integer.highestOneBit(Math.max(capacity, 16) * 2 - 1) * 4;
+        table = new long[counters / 16];
+        indexMask = counters - 1;
+        sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    /**
+     * Returns the estimated number of recent requests for offset
+     */
+    public int frequency(long offset)
+    {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++)
+        {
+            frequency = Math.min(frequency, counter(index(offset, i)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one request for offset
+     */
+    public void increment(long offset)
+    {
+        for (int i = 0; i < SEEDS.length; i++)
+        {
+            int idx = index(offset, i);
+            if (counter(idx) < MAX_COUNT)
+            {
+                table[idx >>> 4] += 1L << ((idx & 15) * 4);
+            }
+        }
+        if (++requests == sampleSize)
+        {
+            for (int i = 0; i < table.length; i++)
+            {
+                table[i] = (table[i] >>> 1) & HALVE_MASK;
+            }
+            requests /= 2;
+        }
+    }
+
+    /**
+     * Returns true iff a record asked for as often as candidate should
+     * replace the record at victim
+     */
+    public boolean admit(long candidate, long victim)
+    {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    /**
+     * Returns the value of counter idx
+     */
+    private int counter(int idx)
+    {
+        return (int)(table[idx >>> 4] >>> ((idx & 15) * 4)) & MAX_COUNT;
+    }
+
+    /**
+     * Returns the counter that the i-th hash of offset picks
+     */
+    private int index(long offset, int i)
+    {
+        long h = (offset + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int)h & indexMask;
+    }
+}
@@ -23,7 +23,10 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Scanner;
 
 /**
@@ -39,36 +42,65 @@ public class GIS
     private static String dbFileName;
     private static String cmdFileName;
     private static String logFileName;
-    private static HashTable<NameEntry> nameIndex;
+    private static NameIndex nameIndex;
     private static PRQuadTree<CoordinateEntry> coordinateIndex;
-    private static BufferPool<GISRecord> bPool;
+    private static RecordPool bPool;
+    private static RecordSource rcdSource; //Reads records that miss the buffer pool
     private static int cmdNum;
+    private static long dbEnd; //End of the records imported into the database
+    private static RecordTokenizer rcdTokens = new RecordTokenizer();
+    private static String hashType = "chained";
+    private static boolean incrementalRehash = false;
+    private static boolean flatQuadTree = false;
+    private static int quadBucketSize = 4;
+    private static int quadMaxDepth = 32;
+    private static int parallelThreshold = 0; //0 keeps region searches on one thread
+    private static final int FETCH_BATCH = 4096; //what_is_in records fetched together
+    private static int poolCapacity = 15;
+    private static String poolPolicy = "lru";
+    private static boolean poolAdmission = false; //true puts a TinyLFU filter on the pool
+    private static int poolShards = 1; //More than 1 makes the pool thread-safe
+    private static String readMode = "line"; //How records that miss the pool are read
+    private static int pageSize = 16384;
+    private static int numPages = 64;
     
     /**
      * Main function that validates command-line arguments and initializes the
      * system components
      * @param args The command-line arguments 
-     *             args[0] = database file name
-     *             args[1] = command script file name
-     *             args[2] = log file name
+     *             Any number of leading option/value pairs, followed by
+     *             database file name
+     *             command script file name
+     *             log file name
      * @throws IOException 
      */
     public static void main(String[] args) throws IOException
     {
+        //Process leading option/value pairs
+        int argIdx = 0;
+        while (argIdx < args.length - 1 && args[argIdx].startsWith("-"))
+        {
+            if (!setOption(args[argIdx], args[argIdx + 1]))
+            {
+                printUsage();
+                return;
+            }
+            argIdx += 2;
+        }
+        
         //Validate command-line parameters
-        if (args.length != 3)
+        if (args.length - argIdx != 3)
         {
-            System.out.println(
-                "Invocation: java GIS [database file name] [script file name] [log file name]");
+            printUsage();
             return;
         }
         
         //Set global variables (If script file is valid)
         try 
         {
-            dbFileName = args[0];
-            cmdFileName = args[1];
-            logFileName = args[2];
+            dbFileName = args[argIdx];
+            cmdFileName = args[argIdx + 1];
+            logFileName = args[argIdx + 2];
             cmdNum = 1;
             
             dbFile = new RandomAccessFile(dbFileName, "rw");
@@ -76,17 +108,186 @@ public class GIS
             logFile = new FileWriter(logFileName);
             
             //Build system components
-            nameIndex = new HashTable<NameEntry>();
-            coordinateIndex = new PRQuadTree<CoordinateEntry>();
-            bPool = new BufferPool<GISRecord>();
+            if (hashType.equals("robinhood"))
+            {
+                nameIndex = new RobinHoodHashTable();
+            }
+            else
+            {
+                nameIndex = new HashTable<NameEntry>(incrementalRehash);
+            }
+            coordinateIndex = new PRQuadTree<CoordinateEntry>(
+                flatQuadTree, quadBucketSize, quadMaxDepth);
+            coordinateIndex.setParallelThreshold(parallelThreshold);
+            bPool = createPool(poolCapacity);
+            if (readMode.equals("paged"))
+            {
+                rcdSource = new PagedRecordSource(dbFile.getChannel(), pageSize, numPages);
+            }
+            else if (readMode.equals("mmap"))
+            {
+                rcdSource = new MappedRecordSource(dbFile.getChannel());
+            }
+            else
+            {
+                rcdSource = new FileRecordSource(dbFile);
+            }
             
             //Process command file 
             process();
         }
         catch(FileNotFoundException e)
         {
-            System.err.println("Could not find file: " + args[1]);
+            System.err.println("Could not find file: " + cmdFileName);
+        }
+    }
+    
+    /**
+     * Records a startup option
+     * @param option The option name (Ex: -hash)
+     * @param value The value given for the option
+     * @return true iff the option and value are recognized
+     */
+    public static boolean setOption(String option, String value)
+    {
+        //Name index implementation
+        if (option.equals("-hash") && 
+            (value.equals("chained") || value.equals("robinhood")))
+        {
+            hashType = value;
+            return true;
+        }
+        //Chained hash table resize mode
+        if (option.equals("-rehash") && 
+            (value.equals("full") || value.equals("incremental")))
+        {
+            incrementalRehash = value.equals("incremental");
+            return true;
+        }
+        //Quadtree node storage
+        if (option.equals("-quad") && 
+            (value.equals("objects") || value.equals("flat")))
+        {
+            flatQuadTree = value.equals("flat");
+            return true;
+        }
+        //Buffer pool replacement policy
+        if (option.equals("-policy") && 
+            (value.equals("lru") || value.equals("clock") || value.equals("slru")))
+        {
+            poolPolicy = value;
+            return true;
+        }
+        //Buffer pool admission filter
+        if (option.equals("-admit") && 
+            (value.equals("all") || value.equals("tinylfu")))
+        {
+            poolAdmission = value.equals("tinylfu");
+            return true;
+        }
+        //Database read path
+        if (option.equals("-read") && 
+            (value.equals("line") || value.equals("paged") || value.equals("mmap")))
+        {
+            readMode = value;
+            return true;
+        }
+        //Numeric options: quadtree leaf capacity, maximum depth, parallel search
+        //threshold, pool capacity and shards, page size and number of pages
+        if (option.equals("-bucket") || option.equals("-depth") || option.equals("-parallel") ||
+            option.equals("-pool") || option.equals("-shards") || option.equals("-page") ||
+            option.equals("-pages"))
+        {
+            int number;
+            try
+            {
+                number = Integer.parseInt(value);
+            }
+            catch (NumberFormatException e)
+            {
+                return false;
+            }
+            if (option.equals("-bucket") && number >= 1)
+            {
+                quadBucketSize = number;
+                return true;
+            }
+            if (option.equals("-depth") && number >= 0)
+            {
+                quadMaxDepth = number;
+                return true;
+            }
+            if (option.equals("-parallel") && number >= 0)
+            {
+                parallelThreshold = number;
+                return true;
+            }
+            if (option.equals("-pool") && number >= 1)
+            {
+                poolCapacity = number;
+                return true;
+            }
+            if (option.equals("-shards") && number >= 1 && Integer.bitCount(number) == 1)
+            {
+                poolShards = number;
+                return true;
+            }
+            if (option.equals("-page") && number >= 512 && number <= (1 << 20) &&
+                Integer.bitCount(number) == 1)
+            {
+                pageSize = number;
+                return true;
+            }
+            if (option.equals("-pages") && number >= 1)
+            {
+                numPages = number;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Prints the invocation syntax and the supported startup options
+     */
+    public static void printUsage()
+    {
+        System.out.println(
+            "Invocation: java GIS [options] [database file name] [script file name] [log file name]");
+        System.out.println("Options:");
+        System.out.println("    -hash chained|robinhood    name index implementation (default chained)");
+        System.out.println("    -rehash full|incremental   chained table resize mode (default full)");
+        System.out.println("    -quad objects|flat         quadtree node storage (default objects)");
+        System.out.println("    -bucket <n>                quadtree leaf capacity (default 4)");
+        System.out.println("    -depth <n>                 quadtree depth of overflow leaves (default 32)");
+        System.out.println("    -parallel <n>              fork region searches of subtrees with n or more");
+        System.out.println("                               locations (default 0, never fork)");
+        System.out.println("    -pool <n>                  buffer pool capacity in records (default 15)");
+        System.out.println("    -policy lru|clock|slru     buffer pool replacement policy (default lru)");
+        System.out.println("    -admit all|tinylfu         buffer pool admission filter (default all)");
+        System.out.println("    -shards <n>                split the buffer pool into n separately locked");
+        System.out.println("                               shards, a power of two (default 1, unlocked)");
+        System.out.println("    -read line|paged|mmap      read pool misses a line at a time, through a");
+        System.out.println("                               cache of file pages or from a memory mapping");
+        System.out.println("                               of the file (default line)");
+        System.out.println("    -page <n>                  page size in bytes, a power of two from 512");
+        System.out.println("                               to 1048576 (default 16384)");
+        System.out.println("    -pages <n>                 number of pages cached (default 64)");
+    }
+    
+    /**
+     * Creates an empty buffer pool with the startup replacement policy,
+     * admission filter and number of shards
+     * @param capacity The number of records the pool holds
+     * @return The pool
+     */
+    public static RecordPool createPool(int capacity)
+    {
+        if (poolShards > 1)
+        {
+            return new ShardedBufferPool(capacity, poolShards, poolPolicy, poolAdmission);
         }
+        return BufferPool.create(capacity, poolPolicy, poolAdmission);
     }
     
     /**
@@ -116,6 +317,11 @@ public class GIS
             {
                 processImport(cmdLine);
             }
+            //"pool_size" command
+            else if (cmdLine.contains("pool_size"))
+            {
+                processPoolSize(cmdLine);
+            }
             //"debug" command
             else if (cmdLine.contains("debug"))
             {
@@ -130,6 +336,11 @@ public class GIS
             {
                 processWhatIsIn(cmdLine);
             }
+            //"what_is_near" command
+            else if (cmdLine.contains("what_is_near"))
+            {
+                processWhatIsNear(cmdLine);
+            }
             //"what_is" command
             else if (cmdLine.contains("what_is"))
             {
@@ -159,13 +370,13 @@ public class GIS
         cmdScan.next();
         //Extract latitude/longitude values and convert to total seconds
         String westLong = cmdScan.next();
-        int westLongSec = toTotalSeconds(westLong);
+        int westLongSec = DMS.toTotalSeconds(westLong);
         String eastLong = cmdScan.next();
-        int eastLongSec = toTotalSeconds(eastLong);
+        int eastLongSec = DMS.toTotalSeconds(eastLong);
         String southLat = cmdScan.next();
-        int southLatSec = toTotalSeconds(southLat);
+        int southLatSec = DMS.toTotalSeconds(southLat);
         String northLat = cmdScan.next();
-        int northLatSec = toTotalSeconds(northLat);
+        int northLatSec = DMS.toTotalSeconds(northLat);
         cmdScan.close();
         
         //Set the boundaries for the PR Quad Tree
@@ -210,61 +421,39 @@ public class GIS
         logFile.write("Command " + cmdNum + ":\timport\t" + gisFileName + "\n\n");
         
         //Ignore header line
-        String header = gisFile.readLine();
-        
-        //Import file into database
-        for (int i = header.length(); i < gisFile.length() - 1; i++)
-        {
-            dbFile.write(gisFile.read());
-        }
-        dbFile.seek(0);
+        gisFile.readLine();
+        
+        //Import file into database with a bulk channel transfer
+        long importStart = dbEnd;
+        dbFile.seek(importStart);
+        long startTime = System.nanoTime();
+        long numBytes = appendToDatabase(gisFile);
+        long elapsedTime = Math.max(System.nanoTime() - startTime, 1);
+        long importEnd = importStart + numBytes;
+        dbEnd = importEnd;
+        rcdSource.refresh();
+        
+        //Only the newly appended records need to be indexed
+        DatabaseScanner dbScan = new DatabaseScanner(dbFile.getChannel(), importStart, importEnd);
      
         //Add to indexes
         long offset = 0;
         int numNameAdded = 0;
         int numLocAdded = 0;
         int totalNameLen = 0;
-        while (dbFile.getFilePointer() < dbFile.length())
+        ArrayList<CoordinateEntry> coords = new ArrayList<CoordinateEntry>();
+        while (dbScan.nextRecord(rcdTokens))
         {
-            boolean missingLatLong = false;
             //Extract offset
-            offset = dbFile.getFilePointer();
-            
-            //Add record to database
-            String record = dbFile.readLine();
+            offset = dbScan.recordOffset();
             
             //Extract feature name, state abbreviation, and latitude/longitude 
-            Scanner rcdScan = new Scanner(record);
-            rcdScan.useDelimiter("\\|");
-            rcdScan.next(); //Go past the feature ID
-            String featureName = rcdScan.next();
+            String featureName = rcdTokens.field(RecordTokenizer.FEATURE_NAME);
             totalNameLen += featureName.length();
-            rcdScan.next(); //Go past the feature class
-            String stateAbb = rcdScan.next();
-            rcdScan.next(); //Go past the state numeric
-            rcdScan.next(); //Go past the county name
-            rcdScan.next(); //Go past the county numeric
-            String lat = rcdScan.next();
-            long latSec = 0;
-            if (lat.isEmpty() || lat.equals("Unknown"))
-            {
-                missingLatLong = true;
-            }
-            else
-            {
-                latSec = (long)toTotalSeconds(lat);
-            }
-            String longitude = rcdScan.next();
-            long longSec = 0;
-            if (longitude.isEmpty() || longitude.equals("Unknown"))
-            {
-                missingLatLong = true;
-            }
-            else
-            {
-                longSec = (long)toTotalSeconds(longitude);
-            }
-            rcdScan.close();
+            String stateAbb = rcdTokens.field(RecordTokenizer.STATE_ALPHA);
+            int latSec = DMS.toTotalSeconds(rcdTokens, RecordTokenizer.PRIMARY_LAT_DMS);
+            int longSec = DMS.toTotalSeconds(rcdTokens, RecordTokenizer.PRIM_LONG_DMS);
+            boolean missingLatLong = (latSec == DMS.UNKNOWN || longSec == DMS.UNKNOWN);
             
             //Add to hash table
             NameEntry nameEntry = new NameEntry(featureName, stateAbb, offset);           
@@ -273,26 +462,162 @@ public class GIS
                 numNameAdded++;
             }
             
-            //Add to quad tree if coordinates are valid
+            //Collect for the quad tree if coordinates are valid
             if (!missingLatLong)
             {
-                CoordinateEntry coord = new CoordinateEntry(longSec, latSec, offset);
-                if (coordinateIndex.insert(coord))
-                {
-                    numLocAdded++;
-                }
+                coords.add(new CoordinateEntry(longSec, latSec, offset));
             }
         }
+        
+        //Add the whole batch to the quad tree
+        numLocAdded = coordinateIndex.insertAll(coords);
+        
         //Log relevant data
         logFile.write("Imported Features by name: " + numNameAdded + "\n");
         logFile.write("Imported Locations: " + numLocAdded + "\n");
         logFile.write("Average name length: " + totalNameLen / numNameAdded + "\n");
+        logFile.write("Import throughput: " + numBytes * 1000000000L / elapsedTime + 
+            " bytes/sec (" + numBytes + " bytes)\n");
         logFile.write(
             "--------------------------------------------------------------------------------\n");
         gisFile.close();
         cmdNum++;
     }
     
+    /**
+     * Returns the database record at the given offset, from the buffer pool
+     * if it is there and from the record source (decoding it and adding it to
+     * the pool) if not
+     * @param offset The offset of the record
+     * @return The record
+     * @throws IOException
+     */
+    public static GISRecord fetchRecord(long offset) throws IOException
+    {
+        GISRecord record = bPool.inPool(offset);
+        
+        //The record is not in the pool
+        if (record == null)
+        {
+            record = new GISRecord(rcdSource.readRecord(offset), offset, rcdTokens);
+            bPool.insertRcd(record);
+        }
+        return record;
+    }
+    
+    /**
+     * Returns the database records at the given offsets, in the same order.
+     * The records that are not in the buffer pool are read from the record
+     * source together, in file order, so that nearby records can share a
+     * read. The pool is then asked for each offset in the original order,
+     * so it ends up in the same state, with the same counts, as it would
+     * after one fetchRecord() per offset.
+     * @param offsets The offsets of the records
+     * @param count The number of offsets
+     * @return The records
+     * @throws IOException
+     */
+    public static GISRecord[] fetchRecords(long[] offsets, int count) throws IOException
+    {
+        //Find the records the pool lacks, without counting or promoting
+        long[] missing = new long[count];
+        int numMissing = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (!bPool.contains(offsets[i]))
+            {
+                missing[numMissing++] = offsets[i];
+            }
+        }
+        
+        //Read each missing record once, in file order
+        Arrays.sort(missing, 0, numMissing);
+        int numUnique = 0;
+        for (int i = 0; i < numMissing; i++)
+        {
+            if (numUnique == 0 || missing[i] != missing[numUnique - 1])
+            {
+                missing[numUnique++] = missing[i];
+            }
+        }
+        String[] lines = new String[numUnique];
+        rcdSource.readRecords(missing, numUnique, lines);
+        
+        //Replay the pool requests in order
+        GISRecord[] decoded = new GISRecord[numUnique];
+        GISRecord[] records = new GISRecord[count];
+        for (int i = 0; i < count; i++)
+        {
+            GISRecord record = bPool.inPool(offsets[i]);
+            if (record == null)
+            {
+                int idx = Arrays.binarySearch(missing, 0, numUnique, offsets[i]);
+                if (idx < 0)
+                {
+                    //Evicted since the check by an earlier record of the batch
+                    record = new GISRecord(rcdSource.readRecord(offsets[i]), offsets[i], rcdTokens);
+                }
+                else
+                {
+                    if (decoded[idx] == null)
+                    {
+                        decoded[idx] = new GISRecord(lines[idx], offsets[i], rcdTokens);
+                    }
+                    record = decoded[idx];
+                }
+                bPool.insertRcd(record);
+            }
+            records[i] = record;
+        }
+        return records;
+    }
+    
+    /**
+     * Logs the offset, feature name, state and coordinates of the records at
+     * the given offsets, in order
+     * @param offsets The offsets of the records
+     * @param count The number of offsets
+     * @throws IOException
+     */
+    public static void logFeatures(long[] offsets, int count) throws IOException
+    {
+        GISRecord[] records = fetchRecords(offsets, count);
+        for (int i = 0; i < count; i++)
+        {
+            logFile.write("\t" + offsets[i] + ":\t" + records[i].featureName() + "\t" + 
+                records[i].stateAbb() + "\t(" + DMS.formatLongitude(records[i].longitude()) + ", " + 
+                DMS.formatLatitude(records[i].latitude()) + ")\n");
+        }
+    }
+    
+    /**
+     * Copies the rest of the GIS file, from its current position, into the
+     * database at the database's current position
+     * @param gisFile The GIS file positioned just past its header line
+     * @return The number of bytes copied
+     * @throws IOException
+     */
+    public static long appendToDatabase(RandomAccessFile gisFile) throws IOException
+    {
+        FileChannel gisChannel = gisFile.getChannel();
+        FileChannel dbChannel = dbFile.getChannel();
+        long start = gisFile.getFilePointer();
+        long numBytes = gisFile.length() - start;
+        
+        //transferTo writes at, and advances, the database's file pointer
+        long copied = 0;
+        while (copied < numBytes)
+        {
+            long transferred = gisChannel.transferTo(start + copied, numBytes - copied, dbChannel);
+            if (transferred <= 0)
+            {
+                break;
+            }
+            copied += transferred;
+        }
+        return copied;
+    }
+    
     /**
      * Processes a "debug" command
      * @param cmd The command line containing the "debug" command
@@ -327,11 +652,58 @@ public class GIS
             //Echo command
             logFile.write("Command " + cmdNum + ":\tdebug\tpool\n\n"); 
             
+            rcdSource.display(logFile);
             bPool.display(logFile);
         }
         cmdNum++;
     }
     
+    /**
+     * Processes a "pool_size" command, which replaces the buffer pool with
+     * one of the given capacity that keeps as many of the old pool's records
+     * as fit
+     * @param cmd The command line containing the "pool_size" command
+     * @throws IOException
+     */
+    public static void processPoolSize(String cmd) throws IOException
+    {
+        Scanner cmdScan = new Scanner(cmd);
+        cmdScan.useDelimiter("\t");
+        //Go past the "pool_size" command
+        cmdScan.next();
+        String size = cmdScan.next().trim();
+        cmdScan.close();
+        
+        //Echo command
+        logFile.write("Command " + cmdNum + ":\tpool_size\t" + size + "\n\n");
+        
+        int capacity;
+        try
+        {
+            capacity = Integer.parseInt(size);
+        }
+        catch (NumberFormatException e)
+        {
+            capacity = 0;
+        }
+        if (capacity < 1)
+        {
+            logFile.write("Invalid pool size: " + size + "\n");
+        }
+        else
+        {
+            //Report the counts of the pool being replaced
+            logFile.write(bPool.stats() + "\n");
+            RecordPool resized = createPool(capacity);
+            resized.takeFrom(bPool);
+            bPool = resized;
+            logFile.write("Buffer pool capacity set to " + bPool.capacity() + "\n");
+        }
+        logFile.write(
+            "--------------------------------------------------------------------------------\n");
+        cmdNum++;
+    }
+    
     /**
      * Processes a "what_is_at" command
      * @param cmd The command line containing the "what_is_at" command
@@ -345,9 +717,9 @@ public class GIS
         //Go past the "what_is_at" command
         cmdScan.next();
         String latitude = cmdScan.next();
-        long latSec = (long)toTotalSeconds(latitude);
+        int latSec = DMS.toTotalSeconds(latitude);
         String longitude = cmdScan.next();
-        long longSec = (long)toTotalSeconds(longitude);
+        int longSec = DMS.toTotalSeconds(longitude);
         cmdScan.close();
         
         //Echo command
@@ -363,39 +735,14 @@ public class GIS
         if (result != null)
         {
             logFile.write("   The following features were found at: (" + 
-                parseLongitude(longitude) + ", " + parseLatitude(latitude) + ")\n");
-            ArrayList<Long> offsets = result.locations();
-            for (int i = 0; i < offsets.size(); i++)
+                DMS.formatLongitude(longSec) + ", " + DMS.formatLatitude(latSec) + ")\n");
+            long[] offsets = result.locations().toArray();
+            GISRecord[] records = fetchRecords(offsets, offsets.length);
+            for (int i = 0; i < offsets.length; i++)
             {
-                String record = "";
-                String bPoolRcd = bPool.inPool(offsets.get(i));
-                
-                //The record is in the buffer pool
-                if (bPoolRcd != null)
-                {
-                    record = bPoolRcd;
-                }                
-                //The record is not in the pool
-                else
-                {
-                    dbFile.seek(offsets.get(i));
-                    record = dbFile.readLine();
-                    bPool.insertRcd(record, offsets.get(i));
-                }
-                //Extract relevant information
-                Scanner rcdScan = new Scanner(record);
-                rcdScan.useDelimiter("\\|");
-                rcdScan.next(); //Go past the featureID
-                String featureName = rcdScan.next(); //Go past the feature name
-                rcdScan.next(); //Go past the feature class
-                String stateAbb = rcdScan.next();
-                rcdScan.next(); //Go past the state numeric
-                String countyName = rcdScan.next(); //Go past the county name
-                rcdScan.close();
-                
                 //Log relevant information
-                logFile.write("\t" + offsets.get(i) + ":\t" + featureName + "\t" + 
-                    countyName + "\t" + stateAbb + "\n");
+                logFile.write("\t" + offsets[i] + ":\t" + records[i].featureName() + "\t" + 
+                    records[i].countyName() + "\t" + records[i].stateAbb() + "\n");
             }
         }
         
@@ -403,7 +750,7 @@ public class GIS
         else
         {
             logFile.write(
-                "Nothing was found at (" + parseLongitude(longitude) + ", (" + parseLatitude(latitude) + ")\n" );
+                "Nothing was found at (" + DMS.formatLongitude(longSec) + ", (" + DMS.formatLatitude(latSec) + ")\n" );
         }
         
         logFile.write(
@@ -412,7 +759,8 @@ public class GIS
     }
     
     /**
-     * Processes a "what_is_in" command
+     * Processes a "what_is_in" command. With the "-c" option only the number
+     * of features in the region is logged, from the quadtree's subtree counts.
      * @param cmd The command line containing the "what_is_in" command
      * @throws IOException
      */
@@ -424,90 +772,150 @@ public class GIS
         //Go past the "what_is_in" command
         cmdScan.next();
         String latitude = cmdScan.next();
-        long latSec = (long)toTotalSeconds(latitude);
+        boolean countOnly = latitude.equals("-c");
+        if (countOnly)
+        {
+            latitude = cmdScan.next();
+        }
+        int latSec = DMS.toTotalSeconds(latitude);
         String longitude = cmdScan.next();
-        long longSec = (long)toTotalSeconds(longitude);
+        int longSec = DMS.toTotalSeconds(longitude);
         long halfHeight = Long.parseLong(cmdScan.next());
         long halfWidth = Long.parseLong(cmdScan.next());       
         cmdScan.close();
         
         //Echo command
-        logFile.write("Command " + cmdNum + ":\twhat_is_in\t" + latitude + 
+        logFile.write("Command " + cmdNum + ":\twhat_is_in\t" + (countOnly ? "-c\t" : "") + latitude + 
             "\t" + longitude + "\t" + halfHeight + "\t" + halfWidth + "\n\n");
         
-        //Query for GIS entries within the specified bounds
-        ArrayList<CoordinateEntry> result = coordinateIndex.find(
-            longSec - halfWidth, longSec + halfWidth, latSec - halfHeight, latSec + halfHeight);
+        long xLo = longSec - halfWidth;
+        long xHi = longSec + halfWidth;
+        long yLo = latSec - halfHeight;
+        long yHi = latSec + halfHeight;
         
-        //Log output message if there were entries found
-        if (!result.isEmpty())
+        //Count the features without collecting them or reading the database
+        if (countOnly)
         {
-            //Find number of offsets
-            int numOffsets = 0;
-            for (int i = 0; i < result.size(); i++)
+            long[] counts = coordinateIndex.count(xLo, xHi, yLo, yHi);
+            if (counts[1] > 0)
             {
-                for (int j = 0; j < result.get(i).locations().size(); j++)
-                {
-                    numOffsets++;
-                }
+                logFile.write("   " + counts[1] + " features were found at " + counts[0] + 
+                    " locations in: (" + DMS.formatLongitude(longSec) + " +/- " + halfWidth + ", " + 
+                    DMS.formatLatitude(latSec) + " +/- " + halfHeight + ")\n");
             }
+            else
+            {
+                logFile.write(
+                    "Nothing was found at (" + DMS.formatLongitude(longSec) + " +/- " + halfWidth + 
+                    ", " + DMS.formatLatitude(latSec) + " +/- " + halfHeight + ")\n");
+            }
+            logFile.write(
+                "--------------------------------------------------------------------------------\n");
+            cmdNum++;
+            return;
+        }
+        
+        //Total the offsets first so the header can be written before the
+        //entries, which are then read from the index one at a time
+        long numOffsets = coordinateIndex.count(xLo, xHi, yLo, yHi)[1];
+        
+        //Log output message if there were entries found
+        if (numOffsets > 0)
+        {
             logFile.write("   The following " + numOffsets + " features were found in: (" + 
-                parseLongitude(longitude) + " +/- " + halfWidth + ", " + parseLatitude(latitude) + 
+                DMS.formatLongitude(longSec) + " +/- " + halfWidth + ", " + DMS.formatLatitude(latSec) + 
                 " +/- " + halfHeight + ")\n");
         }
         
-        //Display relevant information for each found location
+        //Display relevant information for each found location, fetching the
+        //records a batch at a time
         boolean found = false;
-        for (int i = 0; i < result.size(); i++)
-        {
-            if (result != null)
+        long[] batch = new long[FETCH_BATCH];
+        int batchSize = 0;
+        Iterator<CoordinateEntry> result = coordinateIndex.iterator(xLo, xHi, yLo, yHi);
+        while (result.hasNext())
+        {
+            found = true;
+            OffsetList offsets = result.next().locations();
+            for (int j = 0; j < offsets.size(); j++)
             {
-                found = true;
-                ArrayList<Long> offsets = result.get(i).locations();
-                for (int j = 0; j < offsets.size(); j++)
+                if (batchSize == batch.length)
                 {
-                    String record = "";
-                    String bPoolRcd = bPool.inPool(offsets.get(j));
-                    
-                    //The record is in the buffer pool
-                    if (bPoolRcd != null)
-                    {
-                        record = bPoolRcd;
-                    }                
-                    //The record is not in the pool
-                    else
-                    {
-                        dbFile.seek(offsets.get(j));
-                        record = dbFile.readLine();
-                        bPool.insertRcd(record, offsets.get(j));
-                    }
-                    //Extract relevant information
-                    Scanner rcdScan = new Scanner(record);
-                    rcdScan.useDelimiter("\\|");
-                    rcdScan.next(); //Go past the featureID
-                    String featureName = rcdScan.next(); //Go past the feature name
-                    rcdScan.next(); //Go past the feature class
-                    String stateAbb = rcdScan.next();
-                    rcdScan.next(); //Go past the state numeric
-                    rcdScan.next(); //Go past the county name
-                    rcdScan.next(); //Go past the county numeric
-                    String resultLat = rcdScan.next();
-                    String resultLong = rcdScan.next();
-                    rcdScan.close();
-                    
-                    //Log relevant information
-                    logFile.write("\t" + offsets.get(j) + ":\t" + featureName + "\t" + stateAbb + 
-                        "\t(" + parseLongitude(resultLong) + ", " + parseLatitude(resultLat) + ")\n");
+                    logFeatures(batch, batchSize);
+                    batchSize = 0;
                 }
+                batch[batchSize++] = offsets.get(j);
             }
         }
+        logFeatures(batch, batchSize);
         
         //Nothing was found in the region
         if (!found)
         {
             logFile.write(
-                "Nothing was found at (" + parseLongitude(longitude) + " +/- " + halfWidth + 
-                ", " + parseLatitude(latitude) + " +/- " + halfHeight + ")\n");
+                "Nothing was found at (" + DMS.formatLongitude(longSec) + " +/- " + halfWidth + 
+                ", " + DMS.formatLatitude(latSec) + " +/- " + halfHeight + ")\n");
+        }
+        
+        logFile.write(
+            "--------------------------------------------------------------------------------\n");
+        cmdNum++;
+    }
+    
+    /**
+     * Processes a "what_is_near" command: logs the k features nearest to the
+     * given coordinates, closest first. A location holding several features
+     * contributes them in offset order, so the last location may be cut short.
+     * @param cmd The command line containing the "what_is_near" command
+     * @throws IOException
+     */
+    public static void processWhatIsNear(String cmd) throws IOException
+    {
+        //Extract the geographic coordinates and number of features
+        Scanner cmdScan = new Scanner(cmd);
+        cmdScan.useDelimiter("\t");
+        //Go past the "what_is_near" command
+        cmdScan.next();
+        String latitude = cmdScan.next();
+        int latSec = DMS.toTotalSeconds(latitude);
+        String longitude = cmdScan.next();
+        int longSec = DMS.toTotalSeconds(longitude);
+        int k = Integer.parseInt(cmdScan.next().trim());
+        cmdScan.close();
+        
+        //Echo command
+        logFile.write("Command " + cmdNum + ":\twhat_is_near\t" + latitude + 
+            "\t" + longitude + "\t" + k + "\n\n");
+        
+        //Every location holds at least one feature, so the k nearest
+        //locations hold the k nearest features
+        ArrayList<CoordinateEntry> result = coordinateIndex.findNearest(longSec, latSec, k);
+        
+        if (!result.isEmpty())
+        {
+            //Take offsets from the nearest locations until there are k
+            long[] batch = new long[k];
+            int batchSize = 0;
+            for (int i = 0; i < result.size() && batchSize < k; i++)
+            {
+                OffsetList offsets = result.get(i).locations();
+                for (int j = 0; j < offsets.size() && batchSize < k; j++)
+                {
+                    batch[batchSize++] = offsets.get(j);
+                }
+            }
+            logFile.write("   The following " + batchSize + " features were found nearest to: (" + 
+                DMS.formatLongitude(longSec) + ", " + DMS.formatLatitude(latSec) + ")\n");
+            
+            //Display relevant information for each feature, closest first
+            logFeatures(batch, batchSize);
+        }
+        
+        //The index is empty
+        else
+        {
+            logFile.write("Nothing was found near (" + DMS.formatLongitude(longSec) + ", " + 
+                DMS.formatLatitude(latSec) + ")\n");
         }
         
         logFile.write(
@@ -541,45 +949,16 @@ public class GIS
         //Record(s) is/are found
         if (result != null)
         {
-            ArrayList<Long> offsets = result.locations();
-            for (int i = 0; i < offsets.size(); i++)
+            long[] offsets = result.locations().toArray();
+            GISRecord[] records = fetchRecords(offsets, offsets.length);
+            for (int i = 0; i < offsets.length; i++)
             {
-                String record = "";
-                String bPoolRcd = bPool.inPool(offsets.get(i));
-                
-                //The record is in the buffer pool
-                if (bPoolRcd != null)
-                {
-                    record = bPoolRcd;
-                }                
-                //The record is not in the pool
-                else
-                {
-                    dbFile.seek(offsets.get(i));
-                    record = dbFile.readLine();
-                    bPool.insertRcd(record, offsets.get(i));
-                }
-                
-                //Extract relevant information
-                Scanner rcdScan = new Scanner(record);
-                rcdScan.useDelimiter("\\|");
-                rcdScan.next(); //Go past the featureID
-                rcdScan.next(); //Go past the feature name
-                rcdScan.next(); //Go past the feature class
-                rcdScan.next(); //Go past the state alpha
-                rcdScan.next(); //Go past the state numeric
-                String countyName = rcdScan.next(); //Go past the county name
-                rcdScan.next(); //Go past the county numeric
-                String latitude = rcdScan.next();
-                String longitude = rcdScan.next();
-                rcdScan.close();
-                
                 //Turn latitude and longitude into a more readable form
-                String latitudeReadable = parseLatitude(latitude);
-                String longitudeReadable = parseLongitude(longitude);
+                String latitudeReadable = DMS.formatLatitude(records[i].latitude());
+                String longitudeReadable = DMS.formatLongitude(records[i].longitude());
                 
                 //Log relevant information
-                logFile.write("\t" + offsets.get(i) + ":\t" + countyName + "  (" + 
+                logFile.write("\t" + offsets[i] + ":\t" + records[i].countyName() + "  (" + 
                     longitudeReadable + ", " + latitudeReadable + ")\n");
             }
         }
@@ -594,168 +973,4 @@ public class GIS
             "--------------------------------------------------------------------------------\n");
         cmdNum++;
     }
-    
-    /**
-     * Converts the parameter from a DMS format to a "total seconds" format
-     * @param coord The latitude/longitude in DMS format
-     * @return The latitude/longitude in a "total seconds" format
-     */
-    public static int toTotalSeconds(String coord)
-    {
-        //Latitude
-        if (coord.length() == 7)
-        {
-            String degrees = coord.substring(0, 2);
-            if (degrees.charAt(0) == '0') //Trim 0 if necessary
-            {
-                degrees = String.valueOf(degrees.charAt(1));
-            }          
-            String minutes = coord.substring(2, 4);
-            if (minutes.charAt(0) == '0') //Trim 0 if necessary
-            {
-                minutes = String.valueOf(minutes.charAt(1));
-            }
-            String seconds = coord.substring(4, 6);
-            if (seconds.charAt(0) == '0') //Trim 0 if necessary
-            {
-                seconds = String.valueOf(seconds.charAt(1));
-            }
-            
-            int degreesSec = Integer.parseInt(degrees) * 3600;
-            int minutesSec = Integer.parseInt(minutes) * 60;
-            int secondsSec = Integer.parseInt(seconds);
-            int total = degreesSec + minutesSec + secondsSec;
-            
-            //West is negative
-            if (coord.charAt(6) == 'W')
-            {
-                total *= -1;
-            }
-            return total;
-        }
-        
-        //Longitude 
-        String degrees = coord.substring(0, 3);
-        if (degrees.charAt(0) == '0') //Trim 0 if necessary
-        {
-            degrees = String.valueOf(degrees.charAt(1) + String.valueOf(degrees.charAt(2)));
-        }
-        else if (degrees.charAt(0) == '0' && degrees.charAt(1) == '0') //Trim 0 if necessary
-        {
-            degrees = degrees.substring(2);        
-        }       
-        String minutes = coord.substring(3, 5);
-        if (minutes.charAt(0) == '0') //Trim 0 if necessary
-        {
-            minutes = String.valueOf(minutes.charAt(1));
-        }       
-        String seconds = coord.substring(5, 7);
-        if (seconds.charAt(0) == '0') //Trim 0 if necessary
-        {
-            seconds = String.valueOf(seconds.charAt(1));
-        }
-        
-        int degreesSec = Integer.parseInt(degrees) * 3600;
-        int minutesSec = Integer.parseInt(minutes) * 60;
-        int secondsSec = Integer.parseInt(seconds);
-        int total = degreesSec + minutesSec + secondsSec;
-        
-        //South is negative
-        if (coord.charAt(7) == 'W')
-        {
-            total *= -1;
-        }
-        return total;
-    }
-    
-    // @param lat: The latitude to be made into a more readable format
-    // @return The provided latitude in a more human-readable format
-    // Pre: The provided latitude is of the form xxxxxxA where x is a digit and A is 'N' or 'S'
-    // Post: Returns the provided latitude in a more human-readable format
-    public static String parseLatitude(String lat)
-    {
-        if (lat.equals("Unknown"))
-        {
-            return "Unknown";
-        }
-        String degrees = lat.substring(0, 2);
-        if (degrees.charAt(0) == '0') //Trim 0 if necessary
-        {
-            degrees = String.valueOf(degrees.charAt(1));
-        }
-        
-        String minutes = lat.substring(2, 4);
-        if (minutes.charAt(0) == '0') //Trim 0 if necessary
-        {
-            minutes = String.valueOf(minutes.charAt(1));
-        }
-        
-        String seconds = lat.substring(4, 6);
-        if (seconds.charAt(0) == '0') //Trim 0 if necessary
-        {
-            seconds = String.valueOf(seconds.charAt(1));
-        }
-        
-        //The more human-readable string
-        String result = degrees + "d " + minutes + "m " + seconds + "s ";
-            
-        if (lat.charAt(6) == 'N') //North
-        {
-            result += "North";
-        }
-        else //South
-        {
-            result += "South";            
-        }
-        
-        return result;
-    }
-    
-    // @param longitude: The longitude to be made into a more readable format
-    // @return The provided longitude in a more human-readable format
-    // Pre: The provided longitude is of the form xxxxxxxA where x is a digit and A is 'W' or 'E'
-    // Post: Returns the provided longitude in a more human-readable format
-    public static String parseLongitude(String longitude)
-    {
-        if (longitude.equals("Unknown"))
-        {
-            return "Unknown";
-        }
-        
-        String degrees = longitude.substring(0, 3);
-        if (degrees.charAt(0) == '0') //Trim 0 if necessary
-        {
-            degrees = String.valueOf(degrees.charAt(1) + String.valueOf(degrees.charAt(2)));
-        }
-        else if (degrees.charAt(0) == '0' && degrees.charAt(1) == '0') //Trim 0 if necessary
-        {
-            degrees = degrees.substring(2);        
-        }
-        
-        String minutes = longitude.substring(3, 5);
-        if (minutes.charAt(0) == '0') //Trim 0 if necessary
-        {
-            minutes = String.valueOf(minutes.charAt(1));
-        }
-        
-        String seconds = longitude.substring(5, 7);
-        if (seconds.charAt(0) == '0') //Trim 0 if necessary
-        {
-            seconds = String.valueOf(seconds.charAt(1));
-        }
-        
-        //The more human-readable string
-        String result = degrees + "d " + minutes + "m " + seconds + "s ";
-            
-        if (longitude.charAt(7) == 'W') //West
-        {
-            result += "West";
-        }
-        else //East
-        {
-            result += "East";            
-        }
-        
-        return result;
-    }
-}
\ No newline at end of file
+}
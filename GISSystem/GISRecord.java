@@ -1,21 +1,34 @@
-import java.io.FileWriter;
-import java.io.IOException;
-
 /**
- * A simple user data type that stores entire GIS records
+ * A simple user data type that stores entire GIS records, along with the
+ * fields the GIS commands log, decoded once when the record is read from
+ * the database so that buffer pool hits need no parsing
  */
 public class GISRecord 
 {
     private String record;
     private long offset;
+    private String featureName;
+    private String stateAbb;
+    private String countyName;
+    private int latitude; //Total seconds, or DMS.UNKNOWN
+    private int longitude; //Total seconds, or DMS.UNKNOWN
     
     /**
      * Constructor
+     * @param rcd The record as read from the database
+     * @param off The offset of the record
+     * @param tokens A tokenizer to decode the record with (it is reset)
      */
-    public GISRecord(String rcd, long off)
+    public GISRecord(String rcd, long off, RecordTokenizer tokens)
     {
         record = rcd;
         offset = off;
+        tokens.reset(rcd);
+        featureName = tokens.field(RecordTokenizer.FEATURE_NAME);
+        stateAbb = tokens.field(RecordTokenizer.STATE_ALPHA);
+        countyName = tokens.field(RecordTokenizer.COUNTY_NAME);
+        latitude = DMS.toTotalSeconds(tokens, RecordTokenizer.PRIMARY_LAT_DMS);
+        longitude = DMS.toTotalSeconds(tokens, RecordTokenizer.PRIM_LONG_DMS);
     }
     
     /**
@@ -33,4 +46,44 @@ public class GISRecord
     {
         return offset;
     }
+    
+    /**
+     * Accessor method for the feature name
+     */
+    public String featureName()
+    {
+        return featureName;
+    }
+    
+    /**
+     * Accessor method for the state abbreviation
+     */
+    public String stateAbb()
+    {
+        return stateAbb;
+    }
+    
+    /**
+     * Accessor method for the county name
+     */
+    public String countyName()
+    {
+        return countyName;
+    }
+    
+    /**
+     * Accessor method for the primary latitude in total seconds
+     */
+    public int latitude()
+    {
+        return latitude;
+    }
+    
+    /**
+     * Accessor method for the primary longitude in total seconds
+     */
+    public int longitude()
+    {
+        return longitude;
+    }
 }
@@ -10,14 +10,25 @@ import java.util.LinkedList;
 * The ArrayList has a default size of 1024 slots
 *
 * The size of the ArrayList is doubled when the load factor exceeds the
-* load limit (1.0).
+* load limit (1.0). In incremental mode the old table is kept alongside the
+* doubled one and a few of its slots are migrated on every insert and find,
+* instead of moving every entry at once.
 */
-public class HashTable<T extends Hashable<T>> 
+public class HashTable<T extends Hashable<T>> implements NameIndex
 {
     private ArrayList<LinkedList<NameEntry>> table; //Physical basis for the hash table
     private Integer numElements = 0; //Number of elements in the table
     private Double loadLimit = 1.0; //Table resize trigger
     private Integer defaultTableSize = 256; //Default number of table slots
+    private long numFinds = 0; //Number of find operations performed
+    private long totalProbes = 0; //Chain entries examined across all finds
+    private int maxProbes = 0; //Most chain entries examined by a single find
+    private boolean incremental = false; //Whether resizes are spread across operations
+    private ArrayList<LinkedList<NameEntry>> oldTable; //Table being migrated (null if none)
+    private int oldTableSize = 0; //Number of slots in the table being migrated
+    private int migrateIdx = 0; //Next old slot to migrate
+    private int oldTableProbes = 0; //Old chain entries examined by the last findInOldTable()
+    private static final int MIGRATE_STEP = 4; //Old slots migrated per operation
     
     /** Constructs an empty hash table
      * Post:
@@ -25,6 +36,17 @@ public class HashTable<T extends Hashable<T>>
      */
     public HashTable()
     {   
+        this(false);
+    }
+    
+    /** Constructs an empty hash table
+     * @param incremental true if resizes should migrate entries incrementally
+     * Post:
+     * - table is an ArrayList of size LinkedList objects
+     */
+    public HashTable(boolean incremental)
+    {   
+        this.incremental = incremental;
         table = new ArrayList<LinkedList<NameEntry>>(defaultTableSize);
         for (int i = 0; i < defaultTableSize; i++)
         {
@@ -47,6 +69,15 @@ public class HashTable<T extends Hashable<T>>
      */
     public boolean insert(NameEntry elem) 
     {
+        migrateSlots();
+        
+        //Entry may still be waiting in the old table
+        NameEntry oldEntry = findInOldTable(elem);
+        if (oldEntry != null)
+        {
+            return oldEntry.addLocation(elem.locations.get(0));
+        }
+        
         int slotIdx = elem.Hash() % defaultTableSize;
         LinkedList<NameEntry> slot = table.get(slotIdx);
         
@@ -57,7 +88,7 @@ public class HashTable<T extends Hashable<T>>
             numElements++;
             if ((numElements / defaultTableSize) >= loadLimit)
             {
-                rehashTable();
+                growTable();
             }
             return true;
         }
@@ -83,7 +114,7 @@ public class HashTable<T extends Hashable<T>>
         //Rehash if load factor is met or exceeded
         if ((numElements / defaultTableSize) >= loadLimit)
         {
-            rehashTable();
+            growTable();
         }
         return true;    
     }
@@ -97,23 +128,34 @@ public class HashTable<T extends Hashable<T>>
      */
     public NameEntry find(NameEntry elem) 
     {
-        //Simple linear search
-        for (int slotIdx = 0; slotIdx < table.size(); slotIdx++)
+        migrateSlots();
+        
+        //Entry may still be waiting in the old table
+        NameEntry oldEntry = findInOldTable(elem);
+        int probes = oldTableProbes;
+        if (oldEntry != null)
         {
-            LinkedList<NameEntry> slot = table.get(slotIdx);
-            if (!slot.isEmpty())
+            recordProbes(probes);
+            return oldEntry;
+        }
+        
+        //Go straight to the home slot and walk its chain
+        LinkedList<NameEntry> slot = table.get(elem.Hash() % defaultTableSize);
+        NameEntry match = null;
+        for (NameEntry entry : slot)
+        {
+            probes++;
+            if (entry.equals(elem))
             {
-                for (int chainIdx = 0; chainIdx < slot.size(); chainIdx++)
-                {
-                    if (slot.get(chainIdx).equals(elem))
-                    {
-                        return slot.get(chainIdx);
-                    }
-                }
+                match = entry;
+                break;
             }
         }
-        //No match
-        return null;
+        
+        recordProbes(probes);
+        
+        //Matching element or null if there is no match
+        return match;
     }
     
     
@@ -127,6 +169,22 @@ public class HashTable<T extends Hashable<T>>
         fw.write("Number of slots: " + defaultTableSize + "\n");
         fw.write("Maximum elements in a slot: " + getMaxSlotSize() + "\n");
         fw.write("Load limit: " + loadLimit + "\n");
+        fw.write("Number of finds: " + numFinds + "\n");
+        fw.write("Average probes per find: " + 
+            String.format("%.2f", numFinds == 0 ? 0.0 : (double)totalProbes / numFinds) + "\n");
+        fw.write("Maximum probes in a find: " + maxProbes + "\n");
+        if (incremental)
+        {
+            if (oldTable != null)
+            {
+                fw.write("Incremental rehash: " + migrateIdx + " of " + oldTableSize + 
+                    " old slots migrated\n");
+            }
+            else
+            {
+                fw.write("Incremental rehash: idle\n");
+            }
+        }
         fw.write("\n");
 
         fw.write("Slot Contents\n");
@@ -139,6 +197,126 @@ public class HashTable<T extends Hashable<T>>
                 fw.write(String.format("%5d: %s\n", idx, curr.toString()));
             }
         }
+        
+        //Entries that have not been migrated yet
+        if (oldTable != null)
+        {
+            fw.write("\nOld Slot Contents\n");
+            for (int idx = migrateIdx; idx < oldTableSize; idx++) 
+            {
+                LinkedList<NameEntry> curr = oldTable.get(idx);
+                if (!curr.isEmpty()) 
+                {
+                    fw.write(String.format("%5d: %s\n", idx, curr.toString()));
+                }
+            }
+        }
+    }
+    
+    /** Records the probe length of a single find
+    */
+    private void recordProbes(int probes)
+    {
+        numFinds++;
+        totalProbes += probes;
+        if (probes > maxProbes)
+        {
+            maxProbes = probes;
+        }
+    }
+    
+    /** Doubles the table size, either all at once or by starting an
+    * incremental migration
+    * Pre:
+    * - The load factor is met or exceeded
+    */
+    private void growTable()
+    {
+        if (!incremental)
+        {
+            rehashTable();
+            return;
+        }
+        
+        //Finish any migration that is still running before starting another
+        while (oldTable != null)
+        {
+            migrateSlots();
+        }
+        
+        oldTable = table;
+        oldTableSize = defaultTableSize;
+        migrateIdx = 0;
+        
+        defaultTableSize *= 2;
+        table = new ArrayList<LinkedList<NameEntry>>(defaultTableSize);
+        for (int i = 0; i < defaultTableSize; i++)
+        {
+            LinkedList<NameEntry> emptyList = new LinkedList<NameEntry>();
+            table.add(emptyList);
+        }
+    }
+    
+    /** Moves the entries of the next few old slots into the current table
+    * Post:
+    * - Up to MIGRATE_STEP old slots have been emptied into the current table
+    * - oldTable is null once every old slot has been migrated
+    */
+    private void migrateSlots()
+    {
+        if (oldTable == null)
+        {
+            return;
+        }
+        
+        int stop = Math.min(migrateIdx + MIGRATE_STEP, oldTableSize);
+        for (; migrateIdx < stop; migrateIdx++)
+        {
+            LinkedList<NameEntry> oldSlot = oldTable.get(migrateIdx);
+            for (NameEntry oldEntry : oldSlot)
+            {
+                table.get(oldEntry.Hash() % defaultTableSize).add(oldEntry);
+            }
+            oldSlot.clear();
+        }
+        
+        //Migration is complete
+        if (migrateIdx == oldTableSize)
+        {
+            oldTable = null;
+            oldTableSize = 0;
+            migrateIdx = 0;
+        }
+    }
+    
+    /** Searches the unmigrated part of the old table for elem
+    * Post:
+    * - oldTableProbes is the number of old chain entries examined
+    * Returns:
+    * reference to the matching element; null if no match is found
+    */
+    private NameEntry findInOldTable(NameEntry elem)
+    {
+        oldTableProbes = 0;
+        if (oldTable == null)
+        {
+            return null;
+        }
+        
+        int oldIdx = elem.Hash() % oldTableSize;
+        if (oldIdx < migrateIdx)
+        {
+            return null;
+        }
+        for (NameEntry entry : oldTable.get(oldIdx))
+        {
+            oldTableProbes++;
+            if (entry.equals(elem))
+            {
+                return entry;
+            }
+        }
+        return null;
     }
     
     /** Rehashes the hash table with double the amount of available slots
@@ -197,6 +375,15 @@ public class HashTable<T extends Hashable<T>>
                 }
             }
         }
+        
+        //Include slots that have not been migrated yet
+        for (int slotIdx = migrateIdx; oldTable != null && slotIdx < oldTableSize; slotIdx++)
+        {
+            if (oldTable.get(slotIdx).size() > maxSlotSize)
+            {
+                maxSlotSize = oldTable.get(slotIdx).size();
+            }
+        }
 
         return maxSlotSize;
     }
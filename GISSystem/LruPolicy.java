@@ -0,0 +1,105 @@
+/**
+ * Least recently used replacement.
+ *
+ * The filled slots are threaded onto a doubly linked list from MRU to LRU
+ * through int prev/next arrays; a used slot moves to the MRU end and the
+ * LRU slot is replaced.
+ */
+public class LruPolicy implements ReplacementPolicy
+{
+    private static final int NONE = -1; //End of the list
+
+    private int[] prev, next; //Neighbours of each slot, towards MRU and LRU
+    private int head = NONE; //MRU slot
+    private int tail = NONE; //LRU slot
+    private int size; //Number of slots in the list
+
+    /**
+     * Creates the policy for a pool of the given capacity
+     */
+    public LruPolicy(int capacity)
+    {
+        prev = new int[capacity];
+        next = new int[capacity];
+    }
+
+    public String name()
+    {
+        return "lru";
+    }
+
+    public void inserted(int slot)
+    {
+        linkFirst(slot);
+    }
+
+    public void accessed(int slot)
+    {
+        unlink(slot);
+        linkFirst(slot);
+    }
+
+    public int victim()
+    {
+        return tail;
+    }
+
+    public void evicted(int slot)
+    {
+        unlink(slot);
+    }
+
+    public int[] order()
+    {
+        int[] slots = new int[size];
+        int i = 0;
+        for (int slot = head; slot != NONE; slot = next[slot])
+        {
+            slots[i++] = slot;
+        }
+        return slots;
+    }
+
+    /**
+     * Takes a slot out of the list
+     */
+    private void unlink(int slot)
+    {
+        if (prev[slot] == NONE)
+        {
+            head = next[slot];
+        }
+        else
+        {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NONE)
+        {
+            tail = prev[slot];
+        }
+        else
+        {
+            prev[next[slot]] = prev[slot];
+        }
+        size--;
+    }
+
+    /**
+     * Puts a slot at the MRU end of the list
+     */
+    private void linkFirst(int slot)
+    {
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head == NONE)
+        {
+            tail = slot;
+        }
+        else
+        {
+            prev[head] = slot;
+        }
+        head = slot;
+        size++;
+    }
+}
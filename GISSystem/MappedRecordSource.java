@@ -0,0 +1,122 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads records straight out of a memory mapping of the database file.
+ *
+ * A single mapping is limited to 2 GB, so the file is mapped in segments of
+ * 1 GB (by default) and a record that crosses from one segment into the next
+ * is read across both. Finding the end of a record is a scan of mapped
+ * memory, with no system call at all once the pages are resident, and the
+ * pages are shared with every other process reading the file through the
+ * OS page cache.
+ *
+ * Only the file as it was at the last refresh() is mapped, so refresh() must
+ * be called after records are appended.
+ */
+public class MappedRecordSource implements RecordSource
+{
+    private static final int SEGMENT_BITS = 30; //log2(default segment size)
+
+    private FileChannel channel; //Channel of the database file
+    private int segmentBits; //log2(segment size)
+    private long segmentMask; //Segment size - 1
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0]; //Mapping of each segment
+    private long mappedLength; //Number of bytes of the file mapped
+    private char[] line = new char[256]; //Characters of the record being read
+
+    /**
+     * Maps the file in 1 GB segments
+     * @param channel The channel of the database file
+     */
+    public MappedRecordSource(FileChannel channel) throws IOException
+    {
+        this(channel, SEGMENT_BITS);
+    }
+
+    /**
+     * Maps the file in segments of the given size
+     * @param channel The channel of the database file
+     * @param segmentBits log2(segment size), at most 30
+     */
+    public MappedRecordSource(FileChannel channel, int segmentBits) throws IOException
+    {
+        this.channel = channel;
+        this.segmentBits = segmentBits;
+        segmentMask = (1L << segmentBits) - 1;
+        refresh();
+    }
+
+    public String readRecord(long offset)
+    {
+        if (offset >= mappedLength)
+        {
+            return null;
+        }
+        int numChars = 0;
+        long pos = offset;
+        while (pos < mappedLength)
+        {
+            MappedByteBuffer segment = segments[(int)(pos >>> segmentBits)];
+            int end = segment.limit();
+            for (int i = (int)(pos & segmentMask); i < end; i++)
+            {
+                byte b = segment.get(i);
+                if (b == '\n' || b == '\r')
+                {
+                    return new String(line, 0, numChars);
+                }
+                if (numChars == line.length)
+                {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[numChars++] = (char)(b & 0xFF);
+            }
+            //Carry on into the next segment
+            pos = (pos & ~segmentMask) + end;
+        }
+        return new String(line, 0, numChars);
+    }
+
+    public void readRecords(long[] offsets, int count, String[] records)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            records[i] = readRecord(offsets[i]);
+        }
+    }
+
+    /**
+     * Maps the part of the file added since the last refresh: the segment
+     * that used to end the file is mapped again to its new length, and new
+     * segments are mapped after it
+     */
+    public void refresh() throws IOException
+    {
+        long length = channel.size();
+        int numSegments = (int)((length + segmentMask) >>> segmentBits);
+        if (numSegments > segments.length)
+        {
+            segments = Arrays.copyOf(segments, numSegments);
+        }
+        for (int i = 0; i < numSegments; i++)
+        {
+            long start = (long)i << segmentBits;
+            long size = Math.min(segmentMask + 1, length - start);
+            if (segments[i] == null || segments[i].limit() < size)
+            {
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        mappedLength = length;
+    }
+
+    public void display(FileWriter log) throws IOException
+    {
+        log.write("Mapped file: " + mappedLength + " bytes\tsegments: " + segments.length +
+            "\tsegment size: " + (segmentMask + 1) + " bytes\n");
+    }
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A batch of CoordinateEntry elements prepared for bulk-loading a PRQuadTree.
+ *
+ * Each element gets a Z-order (Morton) key holding the quadrant it falls in
+ * at each of the top levels of the tree, two bits per level, found with the
+ * same boundary rules as the tree itself. Sorting by key puts the elements
+ * of every subtree in one contiguous run, so the tree can be built in a
+ * single top-down pass over the sorted batch. The key covers about as many
+ * levels as a batch of this size fills evenly; deeper subtrees (dense
+ * clusters) are split by quadrant as they are built.
+ *
+ * Elements that repeat coordinates stay in the batch, each keyed like its
+ * first occurrence, and are merged into that element (or into the element
+ * already in the tree there) when their leaf is built. Where a repeat lands
+ * also shapes the tree: a region stays a leaf only while no element,
+ * repeat or not, arrives after it holds a full bucket of distinct points.
+ * splits() applies that rule to the elements of a run in batch order, so
+ * the tree built matches inserting the batch one element at a time.
+ */
+class MortonBatch
+{
+    private CoordinateEntry[] entries; //In-world elements, in batch order
+    private long[] x, y; //Grid coordinates of each element
+    private long[] keys; //Morton key of each element
+    private int[] order; //Indices into entries, in sorted order
+    private int size; //Number of in-world elements
+    private int[] first; //Index of the first element at each element's coordinates
+    private CoordinateEntry[] held; //Element already in the tree at a first occurrence's coordinates
+    private int levels; //Number of levels encoded in each key
+    private int[] scratch; //Buffer for partitioning
+    private byte[] quadrants; //Quadrant of each position, used when partitioning
+
+    /**
+     * Keys and sorts the elements of batch that lie in the world
+     * @param bucketSize The number of elements a leaf holds before it splits
+     * @param maxDepth The depth at which the tree stops splitting leaves
+     */
+    MortonBatch(ArrayList<CoordinateEntry> batch, QuadGrid grid, int bucketSize, int maxDepth)
+    {
+        entries = new CoordinateEntry[batch.size()];
+        for (int i = 0; i < batch.size(); i++)
+        {
+            CoordinateEntry elem = batch.get(i);
+            if (grid.contains(elem.getX(), elem.getY()))
+            {
+                entries[size++] = elem;
+            }
+        }
+        findFirsts();
+        held = new CoordinateEntry[size];
+
+        //The key and the batch index share one long, so a primitive sort
+        //orders by key and then by batch index
+        int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1));
+        int numLeaves = Math.max(size / bucketSize, 1);
+        int evenLevels = (32 - Integer.numberOfLeadingZeros(numLeaves)) / 2 + 1;
+        levels = Math.min(Math.min(maxDepth, evenLevels), (63 - indexBits) / 2);
+        x = new long[size];
+        y = new long[size];
+        keys = new long[size];
+        order = new int[size];
+        scratch = new int[size];
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            x[i] = grid.gridX(entries[i].getX());
+            y[i] = grid.gridY(entries[i].getY());
+            keys[i] = mortonKey(x[i], y[i], 0, grid.width(), 0, grid.height());
+            sorted[i] = keys[i] << indexBits | i;
+        }
+        Arrays.sort(sorted);
+        long indexMask = (1L << indexBits) - 1;
+        for (int i = 0; i < size; i++)
+        {
+            order[i] = (int)(sorted[i] & indexMask);
+        }
+    }
+
+    /**
+     * Returns the number of elements in the batch that lie in the world
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the element at position pos of the sorted batch
+     */
+    CoordinateEntry get(int pos)
+    {
+        return entries[order[pos]];
+    }
+
+    /**
+     * Splits the elements in positions [start, end), which make up the
+     * subtree at the given depth and grid region, into one run per quadrant.
+     * The runs are in Direction ordinal order; groupEnds[q] is set to the
+     * position just past the run for quadrant q.
+     */
+    void partition(int start, int end, int depth,
+        long xLo, long xHi, long yLo, long yHi, int[] groupEnds)
+    {
+        //Past the levels in the key: sort the run by quadrant instead
+        if (depth >= levels)
+        {
+            if (quadrants == null)
+            {
+                quadrants = new byte[order.length];
+            }
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            int[] counts = new int[4];
+            for (int pos = start; pos < end; pos++)
+            {
+                int idx = order[pos];
+                int quadrant = QuadGrid.quadrant(x[idx], y[idx], xMid, yMid);
+                quadrants[pos] = (byte)quadrant;
+                counts[quadrant]++;
+            }
+            int[] next = new int[4];
+            next[0] = start;
+            for (int quadrant = 1; quadrant < 4; quadrant++)
+            {
+                next[quadrant] = next[quadrant - 1] + counts[quadrant - 1];
+            }
+            for (int pos = start; pos < end; pos++)
+            {
+                scratch[next[quadrants[pos]]++] = order[pos];
+            }
+            System.arraycopy(next, 0, groupEnds, 0, 4);
+            System.arraycopy(scratch, start, order, start, end - start);
+            return;
+        }
+
+        int shift = 2 * (levels - 1 - depth);
+        int pos = start;
+        for (int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            while (pos < end && (int)(keys[order[pos]] >>> shift & 3) == quadrant)
+            {
+                pos++;
+            }
+            groupEnds[quadrant] = pos;
+        }
+    }
+
+    /**
+     * Puts the elements in positions [start, end) back in batch order, which
+     * is the order repeated inserts would leave them in within a bucket
+     */
+    void sortByArrival(int start, int end)
+    {
+        Arrays.sort(order, start, end);
+    }
+
+    /**
+     * Returns true iff the element at position pos of the sorted batch is
+     * the first at its coordinates in the batch
+     */
+    boolean isFirst(int pos)
+    {
+        return first[order[pos]] == order[pos];
+    }
+
+    /**
+     * Pre: isFirst(pos)
+     * Records match (null for none) as the element already in the tree at
+     * the coordinates of the element at position pos
+     */
+    void setHeld(int pos, CoordinateEntry match)
+    {
+        held[order[pos]] = match;
+    }
+
+    /**
+     * Returns true iff the element at position pos is a new point: the first
+     * at its coordinates, which are not already in the tree
+     */
+    boolean isNew(int pos)
+    {
+        int idx = order[pos];
+        return first[idx] == idx && held[idx] == null;
+    }
+
+    /**
+     * Pre: !isNew(pos)
+     * Adds the offsets of the element at position pos to the element it
+     * repeats: the one already in the tree, or else its first occurrence
+     */
+    void mergeRepeat(int pos)
+    {
+        int firstIdx = first[order[pos]];
+        CoordinateEntry match = held[firstIdx] != null ? held[firstIdx] : entries[firstIdx];
+        OffsetList offsets = entries[order[pos]].locations();
+        for (int i = 0; i < offsets.size(); i++)
+        {
+            match.addLocation(offsets.get(i));
+        }
+    }
+
+    /**
+     * Returns true iff inserting the elements in positions [start, end) one
+     * at a time, in batch order, would split a region whose leaf already
+     * holds numHeld elements (0 for an empty region). A leaf splits when
+     * any element arrives while it holds bucketSize points, so it splits iff
+     * the run has more new points than the leaf has room for, or exactly as
+     * many and some element arrives after the last of them.
+     */
+    boolean splits(int start, int end, int numHeld, int bucketSize)
+    {
+        int room = bucketSize - numHeld;
+        if (room <= 0)
+        {
+            return start < end;
+        }
+        int numNew = 0;
+        int lastNew = -1; //Batch index of the latest new point
+        int last = -1; //Batch index of the latest element
+        for (int pos = start; pos < end; pos++)
+        {
+            int idx = order[pos];
+            last = Math.max(last, idx);
+            if (first[idx] == idx && held[idx] == null)
+            {
+                if (++numNew > room)
+                {
+                    return true;
+                }
+                lastNew = Math.max(lastNew, idx);
+            }
+        }
+        return numNew == room && last > lastNew;
+    }
+
+    /**
+     * Returns the quadrant (Direction ordinal) of grid point (x, y) at each
+     * level, starting with the root, packed two bits per level
+     */
+    private long mortonKey(long x, long y, long xLo, long xHi, long yLo, long yHi)
+    {
+        long key = 0;
+        for (int level = 0; level < levels; level++)
+        {
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            //Same rules as QuadGrid.quadrant(), without the branches
+            boolean east = x > xMid || (x == xMid && y <= yMid);
+            boolean north = y > yMid || (y == yMid && x > xMid);
+            //NW = 0, SW = 1, SE = 2, NE = 3 (Direction ordinals)
+            key = key << 2 | (east ? 2 : 0) | (east == north ? 1 : 0);
+            xLo = east ? xMid : xLo;
+            xHi = east ? xHi : xMid;
+            yLo = north ? yMid : yLo;
+            yHi = north ? yHi : yMid;
+        }
+        return key;
+    }
+
+    /**
+     * Sets first[i] to the index of the first element with the coordinates
+     * of element i. Uses an open-addressing table of entry indices keyed by
+     * coordinates.
+     */
+    private void findFirsts()
+    {
+        first = new int[size];
+        int capacity = Integer.highestOneBit(Math.max(size, 1)) * 4;
+        int mask = capacity - 1;
+        int[] table = new int[capacity]; //Entry index + 1, or 0 for empty
+        for (int i = 0; i < size; i++)
+        {
+            long elemX = entries[i].getX();
+            long elemY = entries[i].getY();
+            long hash = (elemX * 0x9E3779B97F4A7C15L) ^ (elemY * 0xC2B2AE3D27D4EB4FL);
+            int slot = (int)(hash ^ (hash >>> 32)) & mask;
+            first[i] = i;
+            while (table[slot] != 0)
+            {
+                CoordinateEntry other = entries[table[slot] - 1];
+                if (other.getX() == elemX && other.getY() == elemY)
+                {
+                    first[i] = table[slot] - 1;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (first[i] == i)
+            {
+                table[slot] = i + 1;
+            }
+        }
+    }
+}
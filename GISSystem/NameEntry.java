@@ -1,5 +1,3 @@
-import java.util.ArrayList;
-
 /** 
 * A user data type that stores a feature name and state abbreviation
 * as the key and file offsets (locations)
@@ -8,16 +6,15 @@ public class NameEntry implements Hashable<NameEntry>
 {
     String key; //The feature name concatenated with the state 
                 //abbreviation (Ex: bburg_VA)
-    ArrayList<Long> locations; //File offsets of matching records
+    OffsetList locations; //File offsets of matching records
     
     /** Initialize a new NameEntry object with the given feature name,
      *  and a single file offset.
      */
-    public NameEntry(String name, String abb, Long offset) 
+    public NameEntry(String name, String abb, long offset) 
     {
         key = name + ":" + abb;
-        locations = new ArrayList<Long>();
-        locations.add(offset);
+        locations = new OffsetList(offset);
     }
     
     /** Return the key.
@@ -29,7 +26,7 @@ public class NameEntry implements Hashable<NameEntry>
     
     /** Return list of file offsets.
      */
-    public ArrayList<Long> locations() 
+    public OffsetList locations() 
     {
         return locations;
     }
@@ -37,15 +34,10 @@ public class NameEntry implements Hashable<NameEntry>
     /** Append a file offset to the existing list.
      * @param offset The offset to be added
      */
-    public boolean addLocation(Long offset) 
+    public boolean addLocation(long offset) 
     {
         //Do not add a duplicate offset (offsets are unique)
-        if (!locations.contains(offset))
-        {
-            locations.add(offset); 
-            return true;
-        }
-        return false;
+        return locations.add(offset);
     }
     
     /** Donald Knuth hash function for strings. 
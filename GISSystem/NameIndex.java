@@ -0,0 +1,27 @@
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Interface for the feature name index, so that different hash table
+ * implementations can be selected at startup
+ */
+public interface NameIndex 
+{
+    /**
+     * Inserts elem unless a matching element is already in the index, in
+     * which case elem's offset is added to the matching element.
+     * Returns true iff elem or its offset has been inserted
+     */
+    public boolean insert(NameEntry elem);
+    
+    /**
+     * Returns reference to the element that matches elem (according to the
+     * equals() method for NameEntry); null if no match is found
+     */
+    public NameEntry find(NameEntry elem);
+    
+    /**
+     * Writes a formatted display of the index contents
+     */
+    public void display(FileWriter fw) throws IOException;
+}
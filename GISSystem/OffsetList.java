@@ -0,0 +1,239 @@
+import java.util.Arrays;
+
+/**
+ * A compact, growable list of file offsets backed by a long array.
+ *
+ * Offsets are usually appended in increasing order during an import, so a
+ * new offset larger than every offset already in the list is appended without
+ * a search. Out-of-order offsets are checked against a small open-addressing
+ * set of the list's contents, which is only built once the list grows past
+ * SET_THRESHOLD offsets.
+ */
+public class OffsetList
+{
+    private static final int SET_THRESHOLD = 16; //Lists up to this size are scanned
+    private static final long EMPTY = -1; //Marks an empty slot in the offset set
+
+    private long[] offsets; //The offsets, in insertion order
+    private int size; //Number of offsets in the list
+    private long maxOffset; //Largest offset in the list
+    private long[] offsetSet; //Hash set of the offsets (null until needed)
+
+    /**
+     * Creates an empty offset list
+     */
+    public OffsetList()
+    {
+        offsets = new long[2];
+        size = 0;
+        maxOffset = EMPTY;
+    }
+
+    /**
+     * Creates an offset list holding a single offset
+     */
+    public OffsetList(long offset)
+    {
+        this();
+        add(offset);
+    }
+
+    /**
+     * Returns the number of offsets in the list
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true iff the list holds no offsets
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns the offset at the given position
+     * Pre: 0 <= idx < size()
+     */
+    public long get(int idx)
+    {
+        if (idx < 0 || idx >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+        }
+        return offsets[idx];
+    }
+
+    /**
+     * Returns the offsets in the list, in insertion order
+     */
+    public long[] toArray()
+    {
+        return Arrays.copyOf(offsets, size);
+    }
+
+    /**
+     * Appends an offset unless it is already in the list
+     * @param offset The offset to be added (offset >= 0)
+     * @return true iff the offset has been added
+     */
+    public boolean add(long offset)
+    {
+        //Offsets past the current maximum cannot be duplicates
+        if (offset <= maxOffset && contains(offset))
+        {
+            return false;
+        }
+
+        if (size == offsets.length)
+        {
+            long[] grown = new long[size * 2];
+            System.arraycopy(offsets, 0, grown, 0, size);
+            offsets = grown;
+        }
+        offsets[size++] = offset;
+        if (offset > maxOffset)
+        {
+            maxOffset = offset;
+        }
+
+        if (offsetSet != null)
+        {
+            setInsert(offset);
+        }
+        return true;
+    }
+
+    /**
+     * Removes an offset, keeping the rest in insertion order
+     * @param offset The offset to be removed
+     * @return true iff the offset was in the list
+     */
+    public boolean remove(long offset)
+    {
+        if (!contains(offset))
+        {
+            return false;
+        }
+        int idx = 0;
+        while (offsets[idx] != offset)
+        {
+            idx++;
+        }
+        System.arraycopy(offsets, idx + 1, offsets, idx, size - idx - 1);
+        size--;
+
+        if (offset == maxOffset)
+        {
+            maxOffset = EMPTY;
+            for (int i = 0; i < size; i++)
+            {
+                maxOffset = Math.max(maxOffset, offsets[i]);
+            }
+        }
+        //The offset set has no deletion marker; rebuild it when next needed
+        offsetSet = null;
+        return true;
+    }
+
+    /**
+     * Returns true iff the offset is in the list
+     */
+    public boolean contains(long offset)
+    {
+        if (offset > maxOffset || offset < 0)
+        {
+            return false;
+        }
+
+        //Short lists are scanned
+        if (size <= SET_THRESHOLD)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (offsets[i] == offset)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (offsetSet == null)
+        {
+            rebuildSet();
+        }
+        int mask = offsetSet.length - 1;
+        for (int slot = mix(offset) & mask; offsetSet[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if (offsetSet[slot] == offset)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a String representation of the list (Ex: [12, 345])
+     */
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder("[");
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0)
+            {
+                str.append(", ");
+            }
+            str.append(offsets[i]);
+        }
+        return str.append("]").toString();
+    }
+
+    /**
+     * Builds the offset set with room for the list to double
+     */
+    private void rebuildSet()
+    {
+        int capacity = Integer.highestOneBit(size * 4);
+        offsetSet = new long[capacity];
+        Arrays.fill(offsetSet, EMPTY);
+        for (int i = 0; i < size; i++)
+        {
+            setInsert(offsets[i]);
+        }
+    }
+
+    /**
+     * Adds an offset known not to be in the offset set, growing the set
+     * when it becomes half full
+     */
+    private void setInsert(long offset)
+    {
+        if (size * 2 > offsetSet.length)
+        {
+            rebuildSet();
+            return;
+        }
+        int mask = offsetSet.length - 1;
+        int slot = mix(offset) & mask;
+        while (offsetSet[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+        offsetSet[slot] = offset;
+    }
+
+    /**
+     * Spreads the bits of an offset for use as a set index
+     */
+    private static int mix(long offset)
+    {
+        long h = offset * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
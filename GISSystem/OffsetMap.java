@@ -0,0 +1,155 @@
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from file offsets to int values (such as slot
+ * numbers), using linear probing over primitive arrays so lookups never box
+ * an offset. Removal shifts later entries of a probe run back into the gap,
+ * so no tombstones build up as entries come and go.
+ *
+ * Offsets must be non-negative.
+ */
+public class OffsetMap
+{
+    private static final long EMPTY = -1; //Marks an empty slot
+    public static final int NONE = -1; //Returned for an offset not in the map
+
+    private long[] keys; //Offsets, or EMPTY
+    private int[] values; //Value of each offset
+    private int size; //Number of offsets in the map
+
+    /**
+     * Creates an empty map with room for about expected offsets before it
+     * grows
+     */
+    public OffsetMap(int expected)
+    {
+        int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) * 2;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Returns the number of offsets in the map
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the value stored for offset, or NONE
+     */
+    public int get(long offset)
+    {
+        int mask = keys.length - 1;
+        for (int slot = hash(offset) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if (keys[slot] == offset)
+            {
+                return values[slot];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Stores value for offset, replacing any value it had
+     */
+    public void put(long offset, int value)
+    {
+        int mask = keys.length - 1;
+        int slot = hash(offset) & mask;
+        while (keys[slot] != EMPTY)
+        {
+            if (keys[slot] == offset)
+            {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = offset;
+        values[slot] = value;
+        size++;
+        //Keep the table at most half full
+        if (size * 2 > keys.length)
+        {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes offset from the map
+     * @return The value it had, or NONE if it was not in the map
+     */
+    public int remove(long offset)
+    {
+        int mask = keys.length - 1;
+        int slot = hash(offset) & mask;
+        while (keys[slot] != offset)
+        {
+            if (keys[slot] == EMPTY)
+            {
+                return NONE;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int removed = values[slot];
+        size--;
+
+        //Move back any later entry of the run whose home slot is at or
+        //before the gap, so every entry stays reachable from its home slot
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask)
+        {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask))
+            {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        return removed;
+    }
+
+    /**
+     * Removes every offset from the map
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Moves every entry into tables of the given capacity (a power of 2)
+     */
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of an offset so nearby offsets land in different slots
+     */
+    private static int hash(long offset)
+    {
+        long h = offset * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
@@ -1,14 +1,39 @@
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /** 
 * Represents a bucketed PR Quadtree that stores coordinates of GIS records.
-* The default bucket size is assumed to be 4
+* The default bucket size is 4. Leaves at the maximum depth (default 32) are
+* never split; they become overflow buckets that hold any number of elements.
+* Internal nodes keep the number of elements and offsets beneath them, so
+* count() can add up whole subtrees that lie inside the query region.
+*
+* Region searches can be split across the common ForkJoinPool: subtrees
+* holding at least the parallel threshold of elements have their quadrants
+* searched as separate tasks, and the partial results are joined in the
+* same order as the sequential search. iterator() walks the same search
+* lazily, one leaf at a time, for callers that consume results as they go.
+*
+* Regions are tracked on a QuadGrid, where every midpoint is an exact long,
+* so choosing a quadrant on the way down is integer comparisons only.
+*
+* In flat storage mode the nodes are kept in primitive arrays by a
+* FlatQuadStore instead of prQuadLeaf/prQuadInternal objects.
 */
 public class PRQuadTree<T extends Compare2D<? super T>> 
 {   
-    private static final int BUCKETSIZE = 4;
+    private static final int DEFAULT_BUCKETSIZE = 4;
+    private static final int DEFAULT_MAXDEPTH = 32;
+    private static final Direction[] DIRECTIONS = Direction.values(); //By ordinal
+    
+    private int bucketSize = DEFAULT_BUCKETSIZE; //Leaf capacity
+    private int maxDepth = DEFAULT_MAXDEPTH; //Depth at which leaves stop splitting
     
     abstract class prQuadNode 
     {    
@@ -24,10 +49,209 @@ public class PRQuadTree<T extends Compare2D<? super T>>
     class prQuadInternal extends prQuadNode 
     {
         public prQuadNode NW, SW, SE, NE;
+        public int Points; //Elements in the subtree
+        public int Offsets; //Offsets of the elements in the subtree
+    }
+    
+    //Region search of one subtree, run as a fork/join task
+    @SuppressWarnings("serial")
+    class prQuadSearchTask extends RecursiveTask<ArrayList<CoordinateEntry>>
+    {
+        public prQuadNode Node; //Root of the subtree to search
+        public long xLo, xHi, yLo, yHi; //Query rectangle
+        public long nxLo, nxHi, nyLo, nyHi; //Region covered by Node
+        
+        public prQuadSearchTask(prQuadNode node, long xLo, long xHi, long yLo, long yHi,
+            long nxLo, long nxHi, long nyLo, long nyHi)
+        {
+            Node = node;
+            this.xLo = xLo;
+            this.xHi = xHi;
+            this.yLo = yLo;
+            this.yHi = yHi;
+            this.nxLo = nxLo;
+            this.nxHi = nxHi;
+            this.nyLo = nyLo;
+            this.nyHi = nyHi;
+        }
+        
+        @SuppressWarnings("unchecked")
+        protected ArrayList<CoordinateEntry> compute()
+        {
+            ArrayList<CoordinateEntry> bucket = new ArrayList<CoordinateEntry>();
+            
+            //Leaves, small subtrees and regions outside the rectangle are
+            //searched on this thread
+            if (Node == null || Node.getClass().equals(prQuadLeaf.class) ||
+                ((prQuadInternal)Node).Points < parallelThreshold ||
+                nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+            {
+                findHelperBucket(Node, bucket, xLo, xHi, yLo, yHi, nxLo, nxHi, nyLo, nyHi);
+                return bucket;
+            }
+            
+            //Fork NW, SW and SE, search NE here, then join in search order
+            prQuadInternal internal = (prQuadInternal)Node;
+            long xMid = (nxLo + nxHi) >> 1;
+            long yMid = (nyLo + nyHi) >> 1;
+            prQuadSearchTask nw = new prQuadSearchTask(
+                internal.NW, xLo, xHi, yLo, yHi, nxLo, xMid, yMid, nyHi);
+            prQuadSearchTask sw = new prQuadSearchTask(
+                internal.SW, xLo, xHi, yLo, yHi, nxLo, xMid, nyLo, yMid);
+            prQuadSearchTask se = new prQuadSearchTask(
+                internal.SE, xLo, xHi, yLo, yHi, xMid, nxHi, nyLo, yMid);
+            nw.fork();
+            sw.fork();
+            se.fork();
+            bucket.addAll(new prQuadSearchTask(
+                internal.NE, xLo, xHi, yLo, yHi, xMid, nxHi, yMid, nyHi).compute());
+            bucket.addAll(nw.join());
+            bucket.addAll(sw.join());
+            bucket.addAll(se.join());
+            return bucket;
+        }
+    }
+    
+    //Lazy region search, walking the tree with an explicit stack
+    class prQuadRegionIterator implements Iterator<CoordinateEntry>
+    {
+        public long xLo, xHi, yLo, yHi; //Query rectangle
+        public ArrayList<prQuadNode> Nodes = new ArrayList<prQuadNode>(); //Nodes still to visit
+        public long[] Bounds = new long[16 * 4]; //Region of each node on the stack
+        public ArrayList<CoordinateEntry> Leaf; //Elements of the current leaf
+        public int Index; //Next position in Leaf
+        public boolean Contained; //Current leaf lies inside the rectangle
+        public CoordinateEntry Next; //Next element to return, or null
+        
+        public prQuadRegionIterator(long xLo, long xHi, long yLo, long yHi)
+        {
+            this.xLo = xLo;
+            this.xHi = xHi;
+            this.yLo = yLo;
+            this.yHi = yHi;
+            if (root != null)
+            {
+                push(root, 0, grid.width(), 0, grid.height());
+            }
+            advance();
+        }
+        
+        public boolean hasNext()
+        {
+            return Next != null;
+        }
+        
+        public CoordinateEntry next()
+        {
+            if (Next == null)
+            {
+                throw new NoSuchElementException();
+            }
+            CoordinateEntry elem = Next;
+            advance();
+            return elem;
+        }
+        
+        //Finds the next element in the rectangle, opening leaves and
+        //expanding internal nodes until one is found or the stack is empty
+        @SuppressWarnings("unchecked")
+        private void advance()
+        {
+            while (true)
+            {
+                while (Leaf != null && Index < Leaf.size())
+                {
+                    CoordinateEntry elem = Leaf.get(Index++);
+                    if (Contained || inBox(elem, xLo, xHi, yLo, yHi))
+                    {
+                        Next = elem;
+                        return;
+                    }
+                }
+                if (Nodes.isEmpty())
+                {
+                    Next = null;
+                    return;
+                }
+                
+                int top = Nodes.size() - 1;
+                prQuadNode node = Nodes.remove(top);
+                long nxLo = Bounds[top * 4];
+                long nxHi = Bounds[top * 4 + 1];
+                long nyLo = Bounds[top * 4 + 2];
+                long nyHi = Bounds[top * 4 + 3];
+                if (nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+                {
+                    continue;
+                }
+                
+                if (node.getClass().equals(prQuadLeaf.class))
+                {
+                    Contained = nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi;
+                    Leaf = ((prQuadLeaf)node).Elements;
+                    Index = 0;
+                    continue;
+                }
+                
+                //Push quadrants in reverse so they are visited NE, NW, SW, SE
+                prQuadInternal internal = (prQuadInternal)node;
+                long xMid = (nxLo + nxHi) >> 1;
+                long yMid = (nyLo + nyHi) >> 1;
+                push(internal.SE, xMid, nxHi, nyLo, yMid);
+                push(internal.SW, nxLo, xMid, nyLo, yMid);
+                push(internal.NW, nxLo, xMid, yMid, nyHi);
+                push(internal.NE, xMid, nxHi, yMid, nyHi);
+            }
+        }
+        
+        //Pushes a non-empty node and its region onto the stack
+        private void push(prQuadNode node, long nxLo, long nxHi, long nyLo, long nyHi)
+        {
+            if (node == null)
+            {
+                return;
+            }
+            int top = Nodes.size();
+            if (top * 4 == Bounds.length)
+            {
+                long[] newBounds = new long[Bounds.length * 2];
+                System.arraycopy(Bounds, 0, newBounds, 0, Bounds.length);
+                Bounds = newBounds;
+            }
+            Nodes.add(node);
+            Bounds[top * 4] = nxLo;
+            Bounds[top * 4 + 1] = nxHi;
+            Bounds[top * 4 + 2] = nyLo;
+            Bounds[top * 4 + 3] = nyHi;
+        }
+    }
+    
+    //Node or element waiting in the nearest-neighbour priority queue
+    class prQuadCandidate implements Comparable<prQuadCandidate>
+    {
+        public double Distance; //Squared distance from the query point
+        public long Sequence; //Queue order, used to break ties
+        public prQuadNode Node; //Node to expand (null for an element)
+        public CoordinateEntry Element; //Element to report (null for a node)
+        public long xLo, xHi, yLo, yHi; //Region covered by Node
+        
+        public int compareTo(prQuadCandidate other)
+        {
+            if (Distance != other.Distance)
+            {
+                return Distance < other.Distance ? -1 : 1;
+            }
+            return Long.compare(Sequence, other.Sequence);
+        }
     }
     
     prQuadNode root;
     long xMin, xMax, yMin, yMax;
+    private QuadGrid grid = new QuadGrid(0, 0, 0, 0); //Grid the regions are computed on
+    private FlatQuadStore flat; //Array-backed storage (null unless in flat mode)
+    private int parallelThreshold; //Subtree size at which find() forks (0 = never)
+    private int insertedPoints; //Elements added by the last insertHelper() call
+    private int insertedOffsets; //Offsets added by the last insertHelper() call
     
     /**
      * Creates a empty PRQuadTree object
@@ -36,6 +260,31 @@ public class PRQuadTree<T extends Compare2D<? super T>>
     {
     }
     
+    /**
+     * Creates a empty PRQuadTree object
+     * @param flatStorage true to keep the nodes in int-indexed primitive arrays
+     */
+    public PRQuadTree(boolean flatStorage)
+    {
+        this(flatStorage, DEFAULT_BUCKETSIZE, DEFAULT_MAXDEPTH);
+    }
+    
+    /**
+     * Creates a empty PRQuadTree object
+     * @param flatStorage true to keep the nodes in int-indexed primitive arrays
+     * @param bucketSize The number of elements a leaf holds before it splits (>= 1)
+     * @param maxDepth The depth (root = 0) at which leaves become overflow buckets
+     */
+    public PRQuadTree(boolean flatStorage, int bucketSize, int maxDepth)
+    {
+        this.bucketSize = bucketSize;
+        this.maxDepth = maxDepth;
+        if (flatStorage)
+        {
+            flat = new FlatQuadStore(bucketSize, maxDepth);
+        }
+    }
+    
     /**
      * Initialize world bounds to the specified parameters
      */
@@ -45,6 +294,24 @@ public class PRQuadTree<T extends Compare2D<? super T>>
         this.xMax = xMax;
         this.yMin = yMin;
         this.yMax = yMax;
+        grid = new QuadGrid(xMin, xMax, yMin, yMax);
+        if (flat != null)
+        {
+            flat.setWorld(grid);
+        }
+    }
+    
+    /**
+     * Sets the number of elements a subtree must hold for find() to search
+     * its quadrants in parallel; 0 (the default) keeps searches on one thread
+     */
+    public void setParallelThreshold(int threshold)
+    {
+        parallelThreshold = threshold;
+        if (flat != null)
+        {
+            flat.setParallelThreshold(threshold);
+        }
     }
     
     /**
@@ -61,13 +328,111 @@ public class PRQuadTree<T extends Compare2D<? super T>>
             return false;
         }
         //Element can be inserted
+        else if (flat != null)
+        {
+            flat.insert(elem);
+            return true;
+        }
         else 
         {
-            root = insertHelper(root, elem, xMin, xMax, yMin, yMax);
+            root = insertHelper(root, elem, 0, grid.width(), 0, grid.height(), 0);
             return true;
         }
     }
 
+    /**
+     * Pre:   batch != null
+     * Post:  Every element of batch that lies within the tree's region has
+     *        been inserted, leaving the same tree as inserting them one at a
+     *        time in batch order.
+     *        Returns the number of elements that lie within the region.
+     * The batch is sorted by Morton key and the tree built from it in one
+     * top-down pass, whether or not the tree is empty or the batch repeats
+     * coordinates: subtrees the batch misses are left alone, and each
+     * region the batch reaches is split only where the inserts would have
+     * split it.
+     */
+    public int insertAll(ArrayList<CoordinateEntry> batch)
+    {
+        MortonBatch sorted = new MortonBatch(batch, grid, bucketSize, maxDepth);
+        
+        //Points already in the tree absorb the batch elements at their coordinates
+        if (flat != null ? !flat.isEmpty() : root != null)
+        {
+            for (int pos = 0; pos < sorted.size(); pos++)
+            {
+                if (sorted.isFirst(pos))
+                {
+                    sorted.setHeld(pos, find(sorted.get(pos)));
+                }
+            }
+        }
+        
+        if (flat != null)
+        {
+            flat.bulkLoad(sorted);
+        }
+        else
+        {
+            root = bulkLoadHelper(root, sorted, 0, sorted.size(), 0, grid.width(), 0, grid.height(), 0);
+        }
+        return sorted.size();
+    }
+
+    /**
+     * Pre:   elem != null
+     * Post:  The element at elem's coordinates, with all of its offsets, is
+     *        no longer in the tree. Internal nodes whose children fit in one
+     *        bucket again have been collapsed into leaves.
+     *        Returns true iff such an element was in the tree.
+     */
+    public boolean remove(CoordinateEntry elem)
+    {
+        if (flat != null)
+        {
+            return flat.remove(elem) != null;
+        }
+        CoordinateEntry match = findHelper(root, elem, 0, grid.width(), 0, grid.height());
+        if (match == null)
+        {
+            return false;
+        }
+        root = removeHelper(root, match, match.locations().size(), 0, grid.width(), 0, grid.height());
+        return true;
+    }
+    
+    /**
+     * Pre:   elem != null
+     * Post:  offset is no longer in the location list of the element at
+     *        elem's coordinates; the element is removed from the tree (as by
+     *        remove()) when its last offset goes.
+     *        Returns true iff the offset was in that element's list.
+     */
+    public boolean removeOffset(CoordinateEntry elem, long offset)
+    {
+        CoordinateEntry match = find(elem);
+        if (match == null || !match.locations().contains(offset))
+        {
+            return false;
+        }
+        
+        //Last offset: the element goes as well
+        if (match.locations().size() == 1)
+        {
+            return remove(match);
+        }
+        match.removeLocation(offset);
+        if (flat != null)
+        {
+            flat.offsetRemoved(match);
+        }
+        else
+        {
+            offsetRemoved(match);
+        }
+        return true;
+    }
+    
     /**
      * Pre:  elem != null
      * Returns reference to an element x within the tree such that elem.equals(x)
@@ -76,7 +441,11 @@ public class PRQuadTree<T extends Compare2D<? super T>>
      */
     public CoordinateEntry find(CoordinateEntry Elem) 
     {
-        return findHelper(root, Elem, xMin, xMax, yMin, yMax);
+        if (flat != null)
+        {
+            return flat.find(Elem);
+        }
+        return findHelper(root, Elem, 0, grid.width(), 0, grid.height());
     }
 
     /**
@@ -87,19 +456,181 @@ public class PRQuadTree<T extends Compare2D<? super T>>
      */
     public ArrayList<CoordinateEntry> find(long xLo, long xHi, long yLo, long yHi) 
     {
+        //The rest of the search works on the grid
+        xLo = grid.gridX(xLo);
+        xHi = grid.gridX(xHi);
+        yLo = grid.gridY(yLo);
+        yHi = grid.gridY(yHi);
         ArrayList<CoordinateEntry> bucket = new ArrayList<CoordinateEntry>();
-        findHelperBucket(root, bucket, xLo, xHi, yLo, yHi);
+        if (flat != null)
+        {
+            flat.find(xLo, xHi, yLo, yHi, bucket);
+        }
+        //Only a large enough tree is worth handing to the pool
+        else if (parallelThreshold > 0 && root != null && !root.getClass().equals(prQuadLeaf.class) &&
+            ((prQuadInternal)root).Points >= parallelThreshold)
+        {
+            bucket = ForkJoinPool.commonPool().invoke(new prQuadSearchTask(
+                root, xLo, xHi, yLo, yHi, 0, grid.width(), 0, grid.height()));
+        }
+        else
+        {
+            findHelperBucket(root, bucket, xLo, xHi, yLo, yHi, 0, grid.width(), 0, grid.height());
+        }
         return bucket;
     }
     
+    /**
+     * Pre:  xLo, xHi, yLo and yHi define a rectangular region
+     * Returns an iterator over the same elements as find(xLo, xHi, yLo, yHi),
+     * in the same order, found one at a time as the iterator advances so the
+     * whole result is never held at once. The tree must not be changed while
+     * the iterator is in use.
+     */
+    public Iterator<CoordinateEntry> iterator(long xLo, long xHi, long yLo, long yHi)
+    {
+        //The rest of the search works on the grid
+        xLo = grid.gridX(xLo);
+        xHi = grid.gridX(xHi);
+        yLo = grid.gridY(yLo);
+        yHi = grid.gridY(yHi);
+        if (flat != null)
+        {
+            return flat.iterator(xLo, xHi, yLo, yHi);
+        }
+        return new prQuadRegionIterator(xLo, xHi, yLo, yHi);
+    }
+    
+    /**
+     * Pre:  xLo, xHi, yLo and yHi define a rectangular region
+     * Returns {number of elements, number of offsets} in the region,
+     * including its boundary, without collecting the elements
+     */
+    public long[] count(long xLo, long xHi, long yLo, long yHi)
+    {
+        //The rest of the search works on the grid
+        xLo = grid.gridX(xLo);
+        xHi = grid.gridX(xHi);
+        yLo = grid.gridY(yLo);
+        yHi = grid.gridY(yHi);
+        long[] counts = new long[2];
+        if (flat != null)
+        {
+            flat.count(xLo, xHi, yLo, yHi, counts);
+        }
+        else
+        {
+            countHelper(root, counts, xLo, xHi, yLo, yHi, 0, grid.width(), 0, grid.height());
+        }
+        return counts;
+    }
+    
+    /**
+     * Pre:  k >= 0
+     * Returns the (up to) k elements nearest to (x, y), closest first. Nodes
+     * are expanded best-first in order of the minimum distance from (x, y) to
+     * their regions, so only the part of the tree near (x, y) is visited.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<CoordinateEntry> findNearest(long x, long y, int k)
+    {
+        if (flat != null)
+        {
+            return flat.findNearest(x, y, k);
+        }
+        ArrayList<CoordinateEntry> nearest = new ArrayList<CoordinateEntry>();
+        PriorityQueue<prQuadCandidate> queue = new PriorityQueue<prQuadCandidate>();
+        long sequence = 0;
+        if (root != null && k > 0)
+        {
+            queue.add(nodeCandidate(root, x, y, 0, grid.width(), 0, grid.height(), sequence++));
+        }
+        
+        while (!queue.isEmpty() && nearest.size() < k)
+        {
+            prQuadCandidate next = queue.poll();
+            
+            //No unexpanded node can be closer than this element
+            if (next.Element != null)
+            {
+                nearest.add(next.Element);
+            }
+            //Queue every element of a leaf at its exact distance
+            else if (next.Node.getClass().equals(prQuadLeaf.class))
+            {
+                prQuadLeaf leaf = (prQuadLeaf)next.Node;
+                for (int i = 0; i < leaf.Elements.size(); i++)
+                {
+                    CoordinateEntry elem = leaf.Elements.get(i);
+                    prQuadCandidate cand = new prQuadCandidate();
+                    double dx = elem.getX() - x;
+                    double dy = elem.getY() - y;
+                    cand.Distance = dx * dx + dy * dy;
+                    cand.Sequence = sequence++;
+                    cand.Element = elem;
+                    queue.add(cand);
+                }
+            }
+            //Queue the non-empty quadrants of an internal node
+            else
+            {
+                prQuadInternal internal = (prQuadInternal)next.Node;
+                long xMid = (next.xLo + next.xHi) >> 1;
+                long yMid = (next.yLo + next.yHi) >> 1;
+                if (internal.NE != null)
+                {
+                    queue.add(nodeCandidate(
+                        internal.NE, x, y, xMid, next.xHi, yMid, next.yHi, sequence++));
+                }
+                if (internal.NW != null)
+                {
+                    queue.add(nodeCandidate(
+                        internal.NW, x, y, next.xLo, xMid, yMid, next.yHi, sequence++));
+                }
+                if (internal.SW != null)
+                {
+                    queue.add(nodeCandidate(
+                        internal.SW, x, y, next.xLo, xMid, next.yLo, yMid, sequence++));
+                }
+                if (internal.SE != null)
+                {
+                    queue.add(nodeCandidate(
+                        internal.SE, x, y, xMid, next.xHi, next.yLo, yMid, sequence++));
+                }
+            }
+        }
+        return nearest;
+    }
+    
+    /**
+     * Builds a queue entry for a node, keyed by the squared distance from
+     * (x, y) to the closest point of the node's region
+     */
+    private prQuadCandidate nodeCandidate(
+        prQuadNode node, long x, long y, long xLo, long xHi, long yLo, long yHi, long sequence)
+    {
+        prQuadCandidate cand = new prQuadCandidate();
+        double dx = Math.max(Math.max(grid.worldX(xLo) - x, x - grid.worldX(xHi)), 0.0);
+        double dy = Math.max(Math.max(grid.worldY(yLo) - y, y - grid.worldY(yHi)), 0.0);
+        cand.Distance = dx * dx + dy * dy;
+        cand.Sequence = sequence;
+        cand.Node = node;
+        cand.xLo = xLo;
+        cand.xHi = xHi;
+        cand.yLo = yLo;
+        cand.yHi = yHi;
+        return cand;
+    }
+    
     /**
      * Pre: elem can be inserted into the tree
-     * Recursively inserts the element in the tree
+     * Recursively inserts the element in the tree; depth is the depth of sRoot
      * Post: The tree contains one more element containing elem
      */
     @SuppressWarnings("unchecked")
     private prQuadNode insertHelper(
-        prQuadNode sRoot, CoordinateEntry elem, double xLow, double xHi, double yLow, double yHi) 
+        prQuadNode sRoot, CoordinateEntry elem, long xLo, long xHi, long yLo, long yHi,
+        int depth) 
     {   
         //Create leaf (works for empty case as well)
         if (sRoot == null)
@@ -107,19 +638,19 @@ public class PRQuadTree<T extends Compare2D<? super T>>
             prQuadLeaf leaf = new prQuadLeaf();
             leaf.Elements = new ArrayList<CoordinateEntry>();
             leaf.Elements.add(elem);
+            insertedPoints = 1;
+            insertedOffsets = elem.locations().size();
             return leaf;
         }
         
         //Current node is a leaf node 
         else if (sRoot.getClass().equals(prQuadLeaf.class))
         {
-            prQuadInternal internal = new prQuadInternal();
-            
             //Turn current node into a leaf
             prQuadLeaf leaf = (prQuadLeaf)sRoot;
             
-            //Bucket is not full
-            if (leaf.Elements.size() != BUCKETSIZE)
+            //Bucket is not full, or is an overflow bucket at the maximum depth
+            if (leaf.Elements.size() < bucketSize || depth >= maxDepth)
             {
                 //Check if latitude/longitude pair is already in the bucket
                 for (int i = 0; i < leaf.Elements.size(); i++)
@@ -127,90 +658,22 @@ public class PRQuadTree<T extends Compare2D<? super T>>
                     CoordinateEntry leafElem = leaf.Elements.get(i);
                     if (leafElem.equals(elem))
                     {
-                        leafElem.addLocation(elem.locations().get(0));
+                        insertedPoints = 0;
+                        insertedOffsets = addLocations(leafElem, elem);
                         return sRoot;
                     }
                 }
                 
                 //Add to bucket
                 leaf.Elements.add(elem);
+                insertedPoints = 1;
+                insertedOffsets = elem.locations().size();
                 return sRoot;
             }
             
-            //Bucket is full
-            else
-            {   
-                for (int i = 0; i < BUCKETSIZE; i++)
-                {
-                    CoordinateEntry leafElem = leaf.Elements.get(i);
-                    //Determine direction that the new element should be in
-                    Direction dir = leafElem.inQuadrant(xLow, xHi, yLow, yHi);
-                    
-                    //Handle direction
-                    if (dir == Direction.NE)
-                    {
-                        if (internal.NE == null)
-                        {
-                            prQuadLeaf neLeaf = new prQuadLeaf();
-                            neLeaf.Elements = new ArrayList<CoordinateEntry>();
-                            neLeaf.Elements.add(leafElem);
-                            internal.NE = neLeaf;
-                        }
-                        else
-                        {
-                            prQuadLeaf neLeaf = (prQuadLeaf)internal.NE;
-                            neLeaf.Elements.add(leafElem);
-                        }
-                    }
-                    else if (dir == Direction.NW)
-                    {
-                        if (internal.NW == null)
-                        {
-                            prQuadLeaf nwLeaf = new prQuadLeaf();
-                            nwLeaf.Elements = new ArrayList<CoordinateEntry>();
-                            nwLeaf.Elements.add(leafElem);
-                            internal.NW = nwLeaf;
-                        }
-                        else
-                        {
-                            prQuadLeaf nwLeaf = (prQuadLeaf)internal.NW;
-                            nwLeaf.Elements.add(leafElem);
-                        }
-                    }
-                    else if (dir == Direction.SW)
-                    {
-                        if (internal.SW == null)
-                        {
-                            prQuadLeaf swLeaf = new prQuadLeaf();
-                            swLeaf.Elements = new ArrayList<CoordinateEntry>();
-                            swLeaf.Elements.add(leafElem);
-                            internal.SW = swLeaf;
-                        }
-                        else
-                        {
-                            prQuadLeaf swLeaf = (prQuadLeaf)internal.SW;
-                            swLeaf.Elements.add(leafElem);
-                        }
-                    }
-                    else if (dir == Direction.SE)
-                    {
-                        if (internal.SE == null)
-                        {
-                            prQuadLeaf seLeaf = new prQuadLeaf();
-                            seLeaf.Elements = new ArrayList<CoordinateEntry>();
-                            seLeaf.Elements.add(leafElem);
-                            internal.SE = seLeaf;
-                        }
-                        else
-                        {
-                            prQuadLeaf seLeaf = (prQuadLeaf)internal.SE;
-                            seLeaf.Elements.add(leafElem);
-                        }
-                    }
-                }
-            }
-            
-            internal = (prQuadInternal)insertHelper(internal, elem, xLow, xHi, yLow, yHi);
+            //Bucket is full: split it, then insert into the new internal node
+            prQuadInternal internal = splitLeaf(leaf, xLo, xHi, yLo, yHi);
+            internal = (prQuadInternal)insertHelper(internal, elem, xLo, xHi, yLo, yHi, depth);
             return internal;
         }
         
@@ -218,39 +681,378 @@ public class PRQuadTree<T extends Compare2D<? super T>>
         else
         {
             //Find direction to take
-            Direction quadrant = elem.inQuadrant(xLow, xHi, yLow, yHi);
+            Direction quadrant = quadrantOf(elem, xLo, xHi, yLo, yHi);
             
             //Take direction
-            double xAxis = (yLow + yHi) / 2.0;
-            double yAxis = (xLow + xHi) / 2.0;
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
             
             //Take the specified direction
             prQuadInternal nodeToTake = (prQuadInternal)sRoot;
             if (quadrant == Direction.NE)
             {
                 nodeToTake.NE = insertHelper(
-                    nodeToTake.NE, elem, yAxis, xHi, xAxis, yHi);
+                    nodeToTake.NE, elem, xMid, xHi, yMid, yHi, depth + 1);
             }
             else if (quadrant == Direction.NW)
             {
                 nodeToTake.NW = insertHelper(
-                    nodeToTake.NW, elem, xLow, yAxis, xAxis, yHi);              
+                    nodeToTake.NW, elem, xLo, xMid, yMid, yHi, depth + 1);              
             }
             else if (quadrant == Direction.SW)
             {
                 nodeToTake.SW = insertHelper(
-                    nodeToTake.SW, elem, xLow, yAxis, yLow, xAxis);              
+                    nodeToTake.SW, elem, xLo, xMid, yLo, yMid, depth + 1);              
             }
             //Direction.SE
             else
             {
                 nodeToTake.SE = insertHelper(
-                    nodeToTake.SE, elem, yAxis, xHi, yLow, xAxis);               
+                    nodeToTake.SE, elem, xMid, xHi, yLo, yMid, depth + 1);               
             }
+            nodeToTake.Points += insertedPoints;
+            nodeToTake.Offsets += insertedOffsets;
             return nodeToTake;
         }
     }
     
+    /**
+     * Pre: the elements in positions [start, end) of a sorted batch lie in
+     *      the region of sRoot, whose depth is depth
+     * Adds those elements to the subtree as inserting them one at a time in
+     * batch order would, and returns the new subtree
+     */
+    private prQuadNode bulkLoadHelper(prQuadNode sRoot, MortonBatch batch, int start, int end,
+        long xLo, long xHi, long yLo, long yHi, int depth)
+    {
+        if (start == end)
+        {
+            return sRoot;
+        }
+        
+        //Empty region or leaf: keep it as one bucket unless the inserts would split it
+        if (sRoot == null || sRoot.getClass().equals(prQuadLeaf.class))
+        {
+            prQuadLeaf leaf = (prQuadLeaf)sRoot;
+            int numHeld = leaf == null ? 0 : leaf.Elements.size();
+            if (depth >= maxDepth || !batch.splits(start, end, numHeld, bucketSize))
+            {
+                if (leaf == null)
+                {
+                    leaf = new prQuadLeaf();
+                    leaf.Elements = new ArrayList<CoordinateEntry>();
+                }
+                batch.sortByArrival(start, end);
+                for (int pos = start; pos < end; pos++)
+                {
+                    if (batch.isNew(pos))
+                    {
+                        leaf.Elements.add(batch.get(pos));
+                    }
+                    else
+                    {
+                        batch.mergeRepeat(pos);
+                    }
+                }
+                return leaf;
+            }
+            sRoot = leaf == null ? new prQuadInternal() : splitLeaf(leaf, xLo, xHi, yLo, yHi);
+        }
+        
+        //Runs of the batch for each quadrant, in Direction ordinal order
+        int[] groupEnds = new int[4];
+        batch.partition(start, end, depth, xLo, xHi, yLo, yHi, groupEnds);
+        int nwEnd = groupEnds[Direction.NW.ordinal()];
+        int swEnd = groupEnds[Direction.SW.ordinal()];
+        int seEnd = groupEnds[Direction.SE.ordinal()];
+        
+        long xMid = (xLo + xHi) >> 1;
+        long yMid = (yLo + yHi) >> 1;
+        prQuadInternal internal = (prQuadInternal)sRoot;
+        internal.NW = bulkLoadHelper(internal.NW, batch, start, nwEnd, xLo, xMid, yMid, yHi, depth + 1);
+        internal.SW = bulkLoadHelper(internal.SW, batch, nwEnd, swEnd, xLo, xMid, yLo, yMid, depth + 1);
+        internal.SE = bulkLoadHelper(internal.SE, batch, swEnd, seEnd, xMid, xHi, yLo, yMid, depth + 1);
+        internal.NE = bulkLoadHelper(internal.NE, batch, seEnd, end, xMid, xHi, yMid, yHi, depth + 1);
+        internal.Points = 0;
+        internal.Offsets = 0;
+        addSubtreeCounts(internal, internal.NW);
+        addSubtreeCounts(internal, internal.SW);
+        addSubtreeCounts(internal, internal.SE);
+        addSubtreeCounts(internal, internal.NE);
+        return internal;
+    }
+    
+    /**
+     * Adds the elements and offsets beneath child (null for no child) to the
+     * counts of internal
+     */
+    private void addSubtreeCounts(prQuadInternal internal, prQuadNode child)
+    {
+        if (child == null)
+        {
+            return;
+        }
+        if (child.getClass().equals(prQuadLeaf.class))
+        {
+            internal.Points += ((prQuadLeaf)child).Elements.size();
+            internal.Offsets += countOffsets(((prQuadLeaf)child).Elements);
+        }
+        else
+        {
+            internal.Points += ((prQuadInternal)child).Points;
+            internal.Offsets += ((prQuadInternal)child).Offsets;
+        }
+    }
+    
+    /**
+     * Turns a full leaf into an internal node whose child leaves hold the
+     * leaf's elements, in the same order
+     */
+    private prQuadInternal splitLeaf(prQuadLeaf leaf, long xLo, long xHi, long yLo, long yHi)
+    {
+        prQuadInternal internal = new prQuadInternal();
+        for (int i = 0; i < leaf.Elements.size(); i++)
+        {
+            CoordinateEntry leafElem = leaf.Elements.get(i);
+            //Determine direction that the new element should be in
+            Direction dir = quadrantOf(leafElem, xLo, xHi, yLo, yHi);
+            
+            //Handle direction
+            if (dir == Direction.NE)
+            {
+                if (internal.NE == null)
+                {
+                    prQuadLeaf neLeaf = new prQuadLeaf();
+                    neLeaf.Elements = new ArrayList<CoordinateEntry>();
+                    neLeaf.Elements.add(leafElem);
+                    internal.NE = neLeaf;
+                }
+                else
+                {
+                    prQuadLeaf neLeaf = (prQuadLeaf)internal.NE;
+                    neLeaf.Elements.add(leafElem);
+                }
+            }
+            else if (dir == Direction.NW)
+            {
+                if (internal.NW == null)
+                {
+                    prQuadLeaf nwLeaf = new prQuadLeaf();
+                    nwLeaf.Elements = new ArrayList<CoordinateEntry>();
+                    nwLeaf.Elements.add(leafElem);
+                    internal.NW = nwLeaf;
+                }
+                else
+                {
+                    prQuadLeaf nwLeaf = (prQuadLeaf)internal.NW;
+                    nwLeaf.Elements.add(leafElem);
+                }
+            }
+            else if (dir == Direction.SW)
+            {
+                if (internal.SW == null)
+                {
+                    prQuadLeaf swLeaf = new prQuadLeaf();
+                    swLeaf.Elements = new ArrayList<CoordinateEntry>();
+                    swLeaf.Elements.add(leafElem);
+                    internal.SW = swLeaf;
+                }
+                else
+                {
+                    prQuadLeaf swLeaf = (prQuadLeaf)internal.SW;
+                    swLeaf.Elements.add(leafElem);
+                }
+            }
+            else if (dir == Direction.SE)
+            {
+                if (internal.SE == null)
+                {
+                    prQuadLeaf seLeaf = new prQuadLeaf();
+                    seLeaf.Elements = new ArrayList<CoordinateEntry>();
+                    seLeaf.Elements.add(leafElem);
+                    internal.SE = seLeaf;
+                }
+                else
+                {
+                    prQuadLeaf seLeaf = (prQuadLeaf)internal.SE;
+                    seLeaf.Elements.add(leafElem);
+                }
+            }
+        }
+        internal.Points = leaf.Elements.size();
+        internal.Offsets = countOffsets(leaf.Elements);
+        return internal;
+    }
+    
+    /**
+     * Pre: an element equal to elem, with numOffsets offsets, is in the subtree
+     * Recursively removes the element equal to elem and returns the new
+     * subtree (null if it is now empty)
+     */
+    @SuppressWarnings("unchecked")
+    private prQuadNode removeHelper(prQuadNode sRoot, CoordinateEntry elem, int numOffsets, 
+        long xLo, long xHi, long yLo, long yHi)
+    {
+        //Node is a leaf
+        if (sRoot.getClass().equals(prQuadLeaf.class)) 
+        {
+            prQuadLeaf leaf = (prQuadLeaf)sRoot;
+            leaf.Elements.remove(elem);
+            return leaf.Elements.isEmpty() ? null : leaf;
+        }
+        
+        //Node is an internal node
+        Direction quadrant = quadrantOf(elem, xLo, xHi, yLo, yHi);
+        long xMid = (xLo + xHi) >> 1;
+        long yMid = (yLo + yHi) >> 1;
+        prQuadInternal internal = (prQuadInternal)sRoot;
+        internal.Points--;
+        internal.Offsets -= numOffsets;
+        if (quadrant == Direction.NE)
+        {
+            internal.NE = removeHelper(internal.NE, elem, numOffsets, xMid, xHi, yMid, yHi);
+        }
+        else if (quadrant == Direction.NW)
+        {
+            internal.NW = removeHelper(internal.NW, elem, numOffsets, xLo, xMid, yMid, yHi);
+        }
+        else if (quadrant == Direction.SW)
+        {
+            internal.SW = removeHelper(internal.SW, elem, numOffsets, xLo, xMid, yLo, yMid);
+        }
+        else
+        {
+            internal.SE = removeHelper(internal.SE, elem, numOffsets, xMid, xHi, yLo, yMid);
+        }
+        return collapse(internal);
+    }
+    
+    /**
+     * Pre: elem is in the tree and has just lost one offset
+     * Decrements the offset counts of the internal nodes above elem
+     */
+    @SuppressWarnings("unchecked")
+    private void offsetRemoved(CoordinateEntry elem)
+    {
+        prQuadNode sRoot = root;
+        long xLo = 0, xHi = grid.width(), yLo = 0, yHi = grid.height();
+        while (!sRoot.getClass().equals(prQuadLeaf.class))
+        {
+            prQuadInternal internal = (prQuadInternal)sRoot;
+            internal.Offsets--;
+            Direction quadrant = quadrantOf(elem, xLo, xHi, yLo, yHi);
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
+            if (quadrant == Direction.NE)
+            {
+                sRoot = internal.NE;
+                xLo = xMid;
+                yLo = yMid;
+            }
+            else if (quadrant == Direction.NW)
+            {
+                sRoot = internal.NW;
+                xHi = xMid;
+                yLo = yMid;
+            }
+            else if (quadrant == Direction.SW)
+            {
+                sRoot = internal.SW;
+                xHi = xMid;
+                yHi = yMid;
+            }
+            else
+            {
+                sRoot = internal.SE;
+                xLo = xMid;
+                yHi = yMid;
+            }
+        }
+    }
+    
+    /**
+     * Returns a leaf holding the elements of internal's children if they are
+     * all leaves (or empty) and fit in one bucket, null if it has no children
+     * left, and internal itself otherwise
+     */
+    @SuppressWarnings("unchecked")
+    private prQuadNode collapse(prQuadInternal internal)
+    {
+        int ne = leafSize(internal.NE);
+        int nw = leafSize(internal.NW);
+        int sw = leafSize(internal.SW);
+        int se = leafSize(internal.SE);
+        //An internal child holds more than a bucket
+        if (ne < 0 || nw < 0 || sw < 0 || se < 0)
+        {
+            return internal;
+        }
+        int total = ne + nw + sw + se;
+        if (total == 0)
+        {
+            return null;
+        }
+        if (total > bucketSize)
+        {
+            return internal;
+        }
+        
+        //Merge the children into one leaf, in the order find() reports them
+        prQuadLeaf leaf = new prQuadLeaf();
+        leaf.Elements = new ArrayList<CoordinateEntry>();
+        collectAll(internal, leaf.Elements);
+        return leaf;
+    }
+    
+    /**
+     * Returns the number of elements in a leaf, 0 for an empty subtree and
+     * -1 for an internal node
+     */
+    @SuppressWarnings("unchecked")
+    private int leafSize(prQuadNode sRoot)
+    {
+        if (sRoot == null)
+        {
+            return 0;
+        }
+        if (sRoot.getClass().equals(prQuadLeaf.class))
+        {
+            return ((prQuadLeaf)sRoot).Elements.size();
+        }
+        return -1;
+    }
+    
+    /**
+     * Adds every offset of elem to the matching element already in the tree
+     * and returns the number of offsets that were new
+     */
+    private int addLocations(CoordinateEntry match, CoordinateEntry elem)
+    {
+        OffsetList offsets = elem.locations();
+        int numAdded = 0;
+        for (int i = 0; i < offsets.size(); i++)
+        {
+            if (match.addLocation(offsets.get(i)))
+            {
+                numAdded++;
+            }
+        }
+        return numAdded;
+    }
+    
+    /**
+     * Returns the total number of offsets of the elements
+     */
+    private static int countOffsets(ArrayList<CoordinateEntry> elements)
+    {
+        int numOffsets = 0;
+        for (int i = 0; i < elements.size(); i++)
+        {
+            numOffsets += elements.get(i).locations().size();
+        }
+        return numOffsets;
+    }
+    
     /**
      * Pre: elem != null
      * Recursively seraches for the specified element in the tree.
@@ -258,7 +1060,7 @@ public class PRQuadTree<T extends Compare2D<? super T>>
      * Post: The tree is unmodified
      */
     @SuppressWarnings("unchecked")
-    private CoordinateEntry findHelper(prQuadNode sRoot, CoordinateEntry elem, double xLow, double xHi, double yLow, double yHi)
+    private CoordinateEntry findHelper(prQuadNode sRoot, CoordinateEntry elem, long xLo, long xHi, long yLo, long yHi)
     {
         
         //Empty tree or node is not in tree
@@ -288,33 +1090,33 @@ public class PRQuadTree<T extends Compare2D<? super T>>
         else
         {
             //Find direction to take
-            Direction quadrant = elem.inQuadrant(xLow, xHi, yLow, yHi);
+            Direction quadrant = quadrantOf(elem, xLo, xHi, yLo, yHi);
             
             //Take direction
-            double xAxis = (yLow + yHi) / 2.0;
-            double yAxis = (xLow + xHi) / 2.0;
+            long xMid = (xLo + xHi) >> 1;
+            long yMid = (yLo + yHi) >> 1;
             
             //Take the specified direction
             prQuadInternal nodeToTake = (prQuadInternal)sRoot;
             if (quadrant == Direction.NE)
             {
                 return findHelper(
-                    nodeToTake.NE, elem, yAxis, xHi, xAxis, yHi);
+                    nodeToTake.NE, elem, xMid, xHi, yMid, yHi);
             }
             else if (quadrant == Direction.NW)
             {
                 return findHelper(
-                    nodeToTake.NW, elem, xLow, yAxis, xAxis, yHi);              
+                    nodeToTake.NW, elem, xLo, xMid, yMid, yHi);              
             }
             else if (quadrant == Direction.SW)
             {
                 return findHelper(
-                    nodeToTake.SW, elem, xLow, yAxis, yLow, xAxis);              
+                    nodeToTake.SW, elem, xLo, xMid, yLo, yMid);              
             }
             else if (quadrant == Direction.SE)
             {
                 return findHelper(
-                    nodeToTake.SE, elem, yAxis, xHi, yLow, xAxis);               
+                    nodeToTake.SE, elem, xMid, xHi, yLo, yMid);               
             }
             else
             {
@@ -325,48 +1127,145 @@ public class PRQuadTree<T extends Compare2D<? super T>>
     
     /**
      * Pre: ArrayList is initalized 
-     * Recursively seraches for the specified elements in the specified coordinate bounds
+     * Recursively seraches for the specified elements in the specified coordinate bounds.
+     * nxLo, nxHi, nyLo and nyHi are the bounds of the region covered by sRoot; quadrants
+     * that do not intersect the query rectangle are skipped, and quadrants that lie
+     * entirely inside it are collected without checking each element.
      */
     @SuppressWarnings("unchecked")
     private void findHelperBucket(
-        prQuadNode sRoot, ArrayList<CoordinateEntry> bucket, double xLo, double xHi, double yLo, double yHi)
+        prQuadNode sRoot, ArrayList<CoordinateEntry> bucket, long xLo, long xHi, long yLo, long yHi,
+        long nxLo, long nxHi, long nyLo, long nyHi)
     {
+        //Empty subtree or region does not intersect the query rectangle
+        if (sRoot == null || nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+        {
+            return;
+        }
+        
+        //Region lies entirely inside the query rectangle
+        if (nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi)
+        {
+            collectAll(sRoot, bucket);
+        }
         //Add all relevant leaf nodes
-        if (sRoot.getClass().equals(prQuadLeaf.class)) 
+        else if (sRoot.getClass().equals(prQuadLeaf.class)) 
         {
             prQuadLeaf leaf = (prQuadLeaf)sRoot;
             for (int i = 0; i < leaf.Elements.size(); i++)
             {
-                if (leaf.Elements.get(i).inBox(xLo, xHi, yLo, yHi)) 
+                if (inBox(leaf.Elements.get(i), xLo, xHi, yLo, yHi)) 
                 {
                     bucket.add(leaf.Elements.get(i));
                 }
             }
         }
-        //Search internal nodes
+        //Search the quadrants of internal nodes
         else 
         { 
             prQuadInternal internal = (prQuadInternal)sRoot;
+            long xMid = (nxLo + nxHi) >> 1;
+            long yMid = (nyLo + nyHi) >> 1;
             
-            if(internal.NE != null) 
-            {
-                findHelperBucket(internal.NE, bucket, xLo, xHi, yLo, yHi);
-            }
-            
-            if(internal.NW != null) 
-            {
-                findHelperBucket(internal.NW, bucket, xLo, xHi, yLo, yHi);
-            }
-            
-            if(internal.SW != null) 
+            findHelperBucket(internal.NE, bucket, xLo, xHi, yLo, yHi, xMid, nxHi, yMid, nyHi);
+            findHelperBucket(internal.NW, bucket, xLo, xHi, yLo, yHi, nxLo, xMid, yMid, nyHi);
+            findHelperBucket(internal.SW, bucket, xLo, xHi, yLo, yHi, nxLo, xMid, nyLo, yMid);
+            findHelperBucket(internal.SE, bucket, xLo, xHi, yLo, yHi, xMid, nxHi, nyLo, yMid);
+        }
+    }
+    
+    /**
+     * Recursively adds the number of elements and offsets in the query
+     * rectangle to counts[0] and counts[1]. nxLo, nxHi, nyLo and nyHi are the
+     * bounds of the region covered by sRoot; internal nodes whose regions lie
+     * inside the rectangle contribute their subtree counts.
+     */
+    @SuppressWarnings("unchecked")
+    private void countHelper(
+        prQuadNode sRoot, long[] counts, long xLo, long xHi, long yLo, long yHi,
+        long nxLo, long nxHi, long nyLo, long nyHi)
+    {
+        //Empty subtree or region does not intersect the query rectangle
+        if (sRoot == null || nxLo > xHi || nxHi < xLo || nyLo > yHi || nyHi < yLo)
+        {
+            return;
+        }
+        
+        boolean contained = nxLo >= xLo && nxHi <= xHi && nyLo >= yLo && nyHi <= yHi;
+        if (sRoot.getClass().equals(prQuadLeaf.class)) 
+        {
+            prQuadLeaf leaf = (prQuadLeaf)sRoot;
+            for (int i = 0; i < leaf.Elements.size(); i++)
             {
-                findHelperBucket(internal.SW, bucket, xLo, xHi, yLo, yHi);
+                if (contained || inBox(leaf.Elements.get(i), xLo, xHi, yLo, yHi)) 
+                {
+                    counts[0]++;
+                    counts[1] += leaf.Elements.get(i).locations().size();
+                }
             }
+        }
+        //Region lies entirely inside the query rectangle
+        else if (contained)
+        {
+            prQuadInternal internal = (prQuadInternal)sRoot;
+            counts[0] += internal.Points;
+            counts[1] += internal.Offsets;
+        }
+        else 
+        { 
+            prQuadInternal internal = (prQuadInternal)sRoot;
+            long xMid = (nxLo + nxHi) >> 1;
+            long yMid = (nyLo + nyHi) >> 1;
             
-            if(internal.SE != null) 
-            {
-                findHelperBucket(internal.SE, bucket, xLo, xHi, yLo, yHi);
-            }
+            countHelper(internal.NE, counts, xLo, xHi, yLo, yHi, xMid, nxHi, yMid, nyHi);
+            countHelper(internal.NW, counts, xLo, xHi, yLo, yHi, nxLo, xMid, yMid, nyHi);
+            countHelper(internal.SW, counts, xLo, xHi, yLo, yHi, nxLo, xMid, nyLo, yMid);
+            countHelper(internal.SE, counts, xLo, xHi, yLo, yHi, xMid, nxHi, nyLo, yMid);
+        }
+    }
+    
+    /**
+     * Returns the quadrant of the grid region [xLo, xHi] x [yLo, yHi] that
+     * elem falls in
+     */
+    private Direction quadrantOf(CoordinateEntry elem, long xLo, long xHi, long yLo, long yHi)
+    {
+        return DIRECTIONS[QuadGrid.quadrant(grid.gridX(elem.getX()), grid.gridY(elem.getY()),
+            (xLo + xHi) >> 1, (yLo + yHi) >> 1)];
+    }
+    
+    /**
+     * Returns true iff elem lies in the grid rectangle [xLo, xHi] x [yLo, yHi]
+     */
+    private boolean inBox(CoordinateEntry elem, long xLo, long xHi, long yLo, long yHi)
+    {
+        long x = grid.gridX(elem.getX());
+        long y = grid.gridY(elem.getY());
+        return x >= xLo && x <= xHi && y >= yLo && y <= yHi;
+    }
+    
+    /**
+     * Pre: ArrayList is initalized 
+     * Recursively adds every element in the subtree to the bucket
+     */
+    @SuppressWarnings("unchecked")
+    private void collectAll(prQuadNode sRoot, ArrayList<CoordinateEntry> bucket)
+    {
+        if (sRoot == null)
+        {
+            return;
+        }
+        if (sRoot.getClass().equals(prQuadLeaf.class)) 
+        {
+            bucket.addAll(((prQuadLeaf)sRoot).Elements);
+        }
+        else
+        {
+            prQuadInternal internal = (prQuadInternal)sRoot;
+            collectAll(internal.NE, bucket);
+            collectAll(internal.NW, bucket);
+            collectAll(internal.SW, bucket);
+            collectAll(internal.SE, bucket);
         }
     }
     
@@ -375,12 +1274,19 @@ public class PRQuadTree<T extends Compare2D<? super T>>
      */
     public void display(FileWriter Log) throws IOException 
     {       
-        if (root == null) 
+        if (flat != null ? flat.isEmpty() : root == null) 
         {
            Log.write("Tree is empty.\n");
            return;
         }
-        displayHelper(root, "", Log);
+        if (flat != null)
+        {
+           flat.display(Log);
+        }
+        else
+        {
+           displayHelper(root, "", Log);
+        }
         Log.write(
             "--------------------------------------------------------------------------------\n");
      }
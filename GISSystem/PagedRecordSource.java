@@ -0,0 +1,174 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads records by slicing them out of cached, aligned pages of the
+ * database file (a block-level pool under the record BufferPool).
+ *
+ * Records imported together sit next to each other in the file, so the
+ * results of a spatial query usually share a handful of pages: the first
+ * record read from a page costs one page-sized read, and the rest are
+ * sliced out of memory instead of each costing a seek and a byte-at-a-time
+ * readLine(). Pages are found through an OffsetMap keyed by page number and
+ * replaced in LRU order.
+ *
+ * Reads through the file channel, so the file pointer of the underlying
+ * RandomAccessFile is never moved.
+ */
+public class PagedRecordSource implements RecordSource
+{
+    private FileChannel channel; //Channel of the database file
+    private int pageSize; //Bytes per page (a power of two)
+    private int pageShift; //log2(pageSize)
+    private byte[][] pages; //Contents of each slot's page
+    private int[] lengths; //Number of valid bytes in each slot's page
+    private long[] pageNums; //Page held in each slot
+    private int size; //Number of slots filled
+    private OffsetMap slots; //Slot holding each cached page
+    private LruPolicy lru; //Picks the slot to reuse
+    private char[] line = new char[256]; //Characters of the record being read
+
+    private long hits, reads;
+
+    /**
+     * Constructor
+     * @param channel The channel of the database file
+     * @param pageSize The number of bytes per page (a power of two)
+     * @param numPages The number of pages cached
+     */
+    public PagedRecordSource(FileChannel channel, int pageSize, int numPages)
+    {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        pageShift = Integer.numberOfTrailingZeros(pageSize);
+        pages = new byte[numPages][];
+        lengths = new int[numPages];
+        pageNums = new long[numPages];
+        slots = new OffsetMap(numPages);
+        lru = new LruPolicy(numPages);
+    }
+
+    public String readRecord(long offset) throws IOException
+    {
+        int numChars = 0;
+        long pos = offset;
+        while (true)
+        {
+            int slot = page(pos >>> pageShift);
+            byte[] page = pages[slot];
+            int start = (int)(pos & (pageSize - 1));
+            int end = lengths[slot];
+
+            //Copy up to the line terminator or the end of the page
+            int i = start;
+            while (i < end && page[i] != '\n' && page[i] != '\r')
+            {
+                if (numChars == line.length)
+                {
+                    char[] grown = new char[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, numChars);
+                    line = grown;
+                }
+                line[numChars++] = (char)(page[i] & 0xFF);
+                i++;
+            }
+
+            //Stop at the terminator
+            if (i < end)
+            {
+                return new String(line, 0, numChars);
+            }
+            //Stop at the end of the file (null if it is right at offset)
+            if (end < pageSize)
+            {
+                return numChars == 0 ? null : new String(line, 0, numChars);
+            }
+            pos += i - start;
+        }
+    }
+
+    /**
+     * Reads the records one at a time: in increasing order, records on the
+     * same page follow each other, so each page is read at most once
+     */
+    public void readRecords(long[] offsets, int count, String[] records) throws IOException
+    {
+        for (int i = 0; i < count; i++)
+        {
+            records[i] = readRecord(offsets[i]);
+        }
+    }
+
+    /**
+     * Re-reads every cached page that was cut short by the end of the file,
+     * since the database may have grown into it
+     */
+    public void refresh() throws IOException
+    {
+        for (int slot = 0; slot < size; slot++)
+        {
+            if (lengths[slot] < pageSize)
+            {
+                load(slot);
+            }
+        }
+    }
+
+    public void display(FileWriter log) throws IOException
+    {
+        log.write("Page cache: " + size + " of " + pages.length + " pages of " + pageSize +
+            " bytes\tpage hits: " + hits + "\tpage reads: " + reads + "\n");
+    }
+
+    /**
+     * Returns the slot holding page pageNum, reading the page into the
+     * least recently used slot if it is not cached
+     */
+    private int page(long pageNum) throws IOException
+    {
+        int slot = slots.get(pageNum);
+        if (slot != OffsetMap.NONE)
+        {
+            hits++;
+            lru.accessed(slot);
+            return slot;
+        }
+
+        if (size < pages.length)
+        {
+            slot = size++;
+            pages[slot] = new byte[pageSize];
+        }
+        else
+        {
+            slot = lru.victim();
+            lru.evicted(slot);
+            slots.remove(pageNums[slot]);
+        }
+        pageNums[slot] = pageNum;
+        load(slot);
+        slots.put(pageNum, slot);
+        lru.inserted(slot);
+        return slot;
+    }
+
+    /**
+     * Reads the page of a slot from the file
+     */
+    private void load(int slot) throws IOException
+    {
+        reads++;
+        ByteBuffer buf = ByteBuffer.wrap(pages[slot]);
+        long pageStart = pageNums[slot] << pageShift;
+        while (buf.hasRemaining())
+        {
+            if (channel.read(buf, pageStart + buf.position()) < 0)
+            {
+                break;
+            }
+        }
+        lengths[slot] = buf.position();
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.Random;
+
+/**
+ * Compares the BufferPool replacement policies and the TinyLFU admission
+ * filter on a mixed workload: a hot set of records that is asked for over
+ * and over (like repeated what_is lookups), interleaved with long scans of
+ * records that are each asked for once (like large what_is_in results).
+ * Prints the hit ratio and the time per request for several pool sizes,
+ * then the throughput of a single locked pool and of a ShardedBufferPool
+ * as more threads share them (limited by the number of processors, which
+ * is printed with the results).
+ *
+ * Invocation: java PoolBenchmark [number of requests]
+ */
+public class PoolBenchmark
+{
+    private static final int[] CAPACITIES = {15, 1000, 100000};
+    private static final String[] POLICIES = {"lru", "clock", "slru"};
+    private static final int SCAN_LENGTH_FACTOR = 2; //Scan length, in pool capacities
+    private static final double SCAN_FRACTION = 0.5; //Fraction of requests from scans
+    private static final int SHARED_CAPACITY = 100000; //Capacity of the shared pools
+    private static final int[] SHARD_COUNTS = {1, 16};
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final String RECORD = "187216|Telluride Peak|Summit|CO|08|Ouray|091|" +
+        "375529N|1074408W|37.9247168|-107.7356168|||||4108|13478|Ironton|10/13/1978|";
+
+    /**
+     * Runs the benchmark and prints one row per pool size, policy and filter
+     * @param args args[0] = number of requests per run (default 2000000)
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int numRequests = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        System.out.println("requests: " + numRequests);
+        System.out.println(String.format("%-9s %-14s %10s %10s", "capacity", "policy",
+            "hit ratio", "ns/req"));
+        for (int capacity : CAPACITIES)
+        {
+            long[] trace = generateTrace(numRequests, capacity, new Random(1));
+            for (String policy : POLICIES)
+            {
+                for (int admit = 0; admit < 2; admit++)
+                {
+                    //Warm up, then time a fresh pool
+                    run(trace, capacity, policy, admit == 1);
+                    long start = System.nanoTime();
+                    long hits = run(trace, capacity, policy, admit == 1);
+                    long elapsed = System.nanoTime() - start;
+                    System.out.println(String.format("%-9d %-14s %9.1f%% %10.1f", capacity,
+                        policy + (admit == 1 ? "+tinylfu" : ""), 100.0 * hits / trace.length,
+                        (double)elapsed / trace.length));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println("shared pool of " + SHARED_CAPACITY + " records, processors: " +
+            Runtime.getRuntime().availableProcessors());
+        System.out.println(String.format("%-7s %-8s %10s", "shards", "threads", "Mreq/s"));
+        long[] trace = generateTrace(numRequests, SHARED_CAPACITY, new Random(1));
+        for (int numShards : SHARD_COUNTS)
+        {
+            for (int numThreads : THREAD_COUNTS)
+            {
+                //Warm up, then time a fresh pool
+                runShared(trace, numShards, numThreads);
+                long start = System.nanoTime();
+                runShared(trace, numShards, numThreads);
+                long elapsed = System.nanoTime() - start;
+                System.out.println(String.format("%-7d %-8d %10.2f", numShards, numThreads,
+                    trace.length * 1000.0 / elapsed));
+            }
+        }
+    }
+
+    /**
+     * Generates record offsets for the workload: a hot set half the size of
+     * the pool, asked for with a skew towards its first records, and scans
+     * of records never asked for before
+     */
+    static long[] generateTrace(int numRequests, int capacity, Random rand)
+    {
+        long[] trace = new long[numRequests];
+        int hotSize = Math.max(capacity / 2, 1);
+        int scanLength = SCAN_LENGTH_FACTOR * capacity;
+        long nextScanned = hotSize;
+        int i = 0;
+        while (i < numRequests)
+        {
+            if (rand.nextDouble() < SCAN_FRACTION)
+            {
+                for (int j = 0; j < scanLength && i < numRequests; j++)
+                {
+                    trace[i++] = 100 * nextScanned++;
+                }
+            }
+            else
+            {
+                for (int j = 0; j < scanLength && i < numRequests; j++)
+                {
+                    //Squaring a uniform value favours the low end of the hot set
+                    double u = rand.nextDouble();
+                    trace[i++] = 100 * (long)(u * u * hotSize);
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Plays the trace against a new pool and returns the number of hits
+     */
+    private static long run(long[] trace, int capacity, String policyName, boolean admit)
+    {
+        BufferPool<GISRecord> pool = BufferPool.create(capacity, policyName, admit);
+        RecordTokenizer tokens = new RecordTokenizer();
+        long hits = 0;
+        for (long offset : trace)
+        {
+            if (pool.inPool(offset) != null)
+            {
+                hits++;
+            }
+            else
+            {
+                pool.insertRcd(new GISRecord(RECORD, offset, tokens));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Plays the trace against a new shared pool, with each thread taking
+     * every numThreads-th request
+     */
+    private static void runShared(long[] trace, int numShards, int numThreads)
+        throws InterruptedException
+    {
+        RecordPool pool = new ShardedBufferPool(SHARED_CAPACITY, numShards, "lru", false);
+        Player[] players = new Player[numThreads];
+        for (int i = 0; i < numThreads; i++)
+        {
+            players[i] = new Player(trace, pool, i, numThreads);
+            players[i].start();
+        }
+        for (int i = 0; i < numThreads; i++)
+        {
+            players[i].join();
+        }
+    }
+
+    /**
+     * A thread that plays part of a trace against a shared pool
+     */
+    private static class Player extends Thread
+    {
+        private long[] trace;
+        private RecordPool pool;
+        private int first; //Index of the first request played
+        private int step; //Distance between requests played
+
+        Player(long[] trace, RecordPool pool, int first, int step)
+        {
+            this.trace = trace;
+            this.pool = pool;
+            this.first = first;
+            this.step = step;
+        }
+
+        public void run()
+        {
+            RecordTokenizer tokens = new RecordTokenizer();
+            for (int i = first; i < trace.length; i += step)
+            {
+                if (pool.inPool(trace[i]) == null)
+                {
+                    pool.insertRcd(new GISRecord(RECORD, trace[i], tokens));
+                }
+            }
+        }
+    }
+}
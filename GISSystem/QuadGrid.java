@@ -0,0 +1,135 @@
+/**
+ * The fixed-point grid that PRQuadTree, FlatQuadStore and MortonBatch do
+ * their region arithmetic in.
+ *
+ * A coordinate is moved so that the world's lower-left corner is the
+ * origin, then shifted left by as many bits as the world extent has. Every
+ * region that can still hold two distinct points (one at least a unit wide)
+ * then has integer bounds and an exact integer midpoint, (lo + hi) >> 1, so
+ * regions split at the same places as with real-valued midpoints and
+ * choosing a quadrant is two long comparisons. Coordinates outside the world
+ * are clamped to just outside it, which leaves every comparison against a
+ * region of the world unchanged.
+ */
+class QuadGrid
+{
+    private long xMin, xMax, yMin, yMax; //World bounds
+    private int shift; //Bits a coordinate is shifted left by
+    private long width, height; //Extent of the world on the grid
+
+    /**
+     * Creates the grid for the world [xMin, xMax] x [yMin, yMax]
+     */
+    QuadGrid(long xMin, long xMax, long yMin, long yMax)
+    {
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        long extent = Math.max(Math.max(xMax - xMin, yMax - yMin), 1);
+        int extentBits = 64 - Long.numberOfLeadingZeros(extent);
+        //Sums of two bounds must still fit in a long; past the shift the
+        //midpoints of sub-unit regions round down, which is harmless since
+        //such regions never split
+        shift = Math.max(Math.min(extentBits, 61 - extentBits), 0);
+        width = Math.max(xMax - xMin, 0) << shift;
+        height = Math.max(yMax - yMin, 0) << shift;
+    }
+
+    /**
+     * Returns true iff (x, y) lies in the world, including its boundary
+     */
+    boolean contains(long x, long y)
+    {
+        return x >= xMin && x <= xMax && y >= yMin && y <= yMax;
+    }
+
+    /**
+     * Returns the grid position of world x coordinate x
+     */
+    long gridX(long x)
+    {
+        if (x < xMin)
+        {
+            return -1;
+        }
+        if (x > xMax)
+        {
+            return width + 1;
+        }
+        return (x - xMin) << shift;
+    }
+
+    /**
+     * Returns the grid position of world y coordinate y
+     */
+    long gridY(long y)
+    {
+        if (y < yMin)
+        {
+            return -1;
+        }
+        if (y > yMax)
+        {
+            return height + 1;
+        }
+        return (y - yMin) << shift;
+    }
+
+    /**
+     * Returns the world x coordinate of grid position gx (exact)
+     */
+    double worldX(long gx)
+    {
+        return xMin + Math.scalb((double)gx, -shift);
+    }
+
+    /**
+     * Returns the world y coordinate of grid position gy (exact)
+     */
+    double worldY(long gy)
+    {
+        return yMin + Math.scalb((double)gy, -shift);
+    }
+
+    /**
+     * Returns the grid x coordinate of the world's east edge (the west edge
+     * is 0)
+     */
+    long width()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the grid y coordinate of the world's north edge (the south
+     * edge is 0)
+     */
+    long height()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the Direction ordinal of the quadrant containing grid point
+     * (x, y) of a region whose midpoint is (xMid, yMid). Uses the same
+     * boundary rules as CoordinateEntry.inQuadrant(): points on the axes go
+     * to the quadrant counter-clockwise of them, and the centre goes to SE.
+     */
+    static int quadrant(long x, long y, long xMid, long yMid)
+    {
+        if (x > xMid && y >= yMid)
+        {
+            return Direction.NE.ordinal();
+        }
+        if (x <= xMid && y > yMid)
+        {
+            return Direction.NW.ordinal();
+        }
+        if (x < xMid && y <= yMid)
+        {
+            return Direction.SW.ordinal();
+        }
+        return Direction.SE.ordinal();
+    }
+}
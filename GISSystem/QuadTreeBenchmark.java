@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures PRQuadTree build time (one insert at a time and bulk-loaded), heap
+ * use and query latency across bucket sizes and storage modes, on synthetic clustered data that resembles dense
+ * urban feature sets (many points packed closely around a few centres).
+ *
+ * Invocation: java QuadTreeBenchmark [number of points] [number of queries]
+ */
+public class QuadTreeBenchmark
+{
+    static final long WORLD_MIN_X = -400000;
+    static final long WORLD_MAX_X = -350000;
+    static final long WORLD_MIN_Y = 100000;
+    static final long WORLD_MAX_Y = 150000;
+    private static final int[] BUCKET_SIZES = {1, 2, 4, 8, 16, 32, 64};
+
+    /**
+     * Runs the benchmark and prints one row per storage mode and bucket size
+     * @param args args[0] = number of points (default 200000)
+     *             args[1] = number of queries (default 2000)
+     */
+    public static void main(String[] args)
+    {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        long[][] points = generatePoints(numPoints, new Random(1));
+        //Query around existing points so the boxes land inside the clusters
+        Random rand = new Random(2);
+        long[][] queries = new long[numQueries][];
+        for (int i = 0; i < numQueries; i++)
+        {
+            queries[i] = points[rand.nextInt(numPoints)];
+        }
+
+        System.out.println("points: " + numPoints + ", queries: " + numQueries);
+        System.out.println(String.format("%-8s %6s %10s %10s %10s %12s %12s %10s",
+            "storage", "bucket", "build ms", "bulk ms", "heap KB", "box us/query", "knn us/query",
+            "box found"));
+
+        //Warm up the JIT so the first row is not penalised
+        runOne(false, 4, points, queries);
+
+        for (int mode = 0; mode < 2; mode++)
+        {
+            for (int bucketSize : BUCKET_SIZES)
+            {
+                runOne(mode == 1, bucketSize, points, queries);
+            }
+        }
+    }
+
+    /**
+     * Builds one tree and times queries against it
+     */
+    private static void runOne(boolean flat, int bucketSize, long[][] points, long[][] queries)
+    {
+        ArrayList<CoordinateEntry> entries = new ArrayList<CoordinateEntry>(points.length);
+        for (int i = 0; i < points.length; i++)
+        {
+            entries.add(new CoordinateEntry(points[i][0], points[i][1], i));
+        }
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        PRQuadTree<CoordinateEntry> tree = new PRQuadTree<CoordinateEntry>(flat, bucketSize, 32);
+        tree.setWorld(WORLD_MIN_X, WORLD_MAX_X, WORLD_MIN_Y, WORLD_MAX_Y);
+        for (int i = 0; i < entries.size(); i++)
+        {
+            tree.insert(entries.get(i));
+        }
+        long buildNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        //Region queries of 60 x 60 seconds around each query point
+        long boxFound = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++)
+        {
+            boxFound += tree.find(queries[i][0] - 30, queries[i][0] + 30,
+                queries[i][1] - 30, queries[i][1] + 30).size();
+        }
+        long boxNanos = System.nanoTime() - start;
+
+        //Ten nearest neighbours of each query point
+        long knnFound = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++)
+        {
+            knnFound += tree.findNearest(queries[i][0], queries[i][1], 10).size();
+        }
+        long knnNanos = System.nanoTime() - start;
+
+        //Uses entries here so they stay reachable while the heap is measured
+        if (knnFound != Math.min(10, entries.size()) * (long)queries.length)
+        {
+            System.out.println("Unexpected nearest-neighbour result count: " + knnFound);
+        }
+        //Same points again, bulk-loaded into a fresh tree
+        ArrayList<CoordinateEntry> batch = new ArrayList<CoordinateEntry>(points.length);
+        for (int i = 0; i < points.length; i++)
+        {
+            batch.add(new CoordinateEntry(points[i][0], points[i][1], i));
+        }
+        start = System.nanoTime();
+        PRQuadTree<CoordinateEntry> bulkTree = new PRQuadTree<CoordinateEntry>(flat, bucketSize, 32);
+        bulkTree.setWorld(WORLD_MIN_X, WORLD_MAX_X, WORLD_MIN_Y, WORLD_MAX_Y);
+        bulkTree.insertAll(batch);
+        long bulkNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("%-8s %6d %10.1f %10.1f %10d %12.2f %12.2f %10.1f",
+            flat ? "flat" : "objects", bucketSize, buildNanos / 1e6, bulkNanos / 1e6,
+            Math.max(heapAfter - heapBefore, 0) / 1024,
+            boxNanos / 1e3 / queries.length, knnNanos / 1e3 / queries.length,
+            (double)boxFound / queries.length));
+    }
+
+    /**
+     * Generates points clustered around a few centres, with a share of exact
+     * duplicates, inside the benchmark world
+     */
+    static long[][] generatePoints(int count, Random rand)
+    {
+        long[][] centres = new long[20][2];
+        for (int i = 0; i < centres.length; i++)
+        {
+            centres[i][0] = WORLD_MIN_X + 5000 + rand.nextInt(40000);
+            centres[i][1] = WORLD_MIN_Y + 5000 + rand.nextInt(40000);
+        }
+
+        long[][] points = new long[count][2];
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0 && rand.nextInt(10) == 0)
+            {
+                points[i] = points[rand.nextInt(i)].clone();
+                continue;
+            }
+            long[] centre = centres[rand.nextInt(centres.length)];
+            double spread = rand.nextBoolean() ? 50 : 1500;
+            points[i][0] = clamp(centre[0] + Math.round(rand.nextGaussian() * spread),
+                WORLD_MIN_X, WORLD_MAX_X);
+            points[i][1] = clamp(centre[1] + Math.round(rand.nextGaussian() * spread),
+                WORLD_MIN_Y, WORLD_MAX_Y);
+        }
+        return points;
+    }
+
+    /**
+     * Returns value limited to [lo, hi]
+     */
+    private static long clamp(long value, long lo, long hi)
+    {
+        return Math.max(lo, Math.min(hi, value));
+    }
+
+    /**
+     * Returns the heap in use after asking for a garbage collection
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        for (int i = 0; i < 5; i++)
+        {
+            System.gc();
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
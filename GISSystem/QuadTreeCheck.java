@@ -0,0 +1,283 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Checks that the ways of building and storing a PRQuadTree give the same
+ * tree. Each round imports two random batches into four trees: object nodes
+ * and flat storage, each filled one insert at a time and with insertAll().
+ * The second batch goes into the trees the first one built. The points lie
+ * on a coarse lattice of a small world, so region boundaries and region
+ * centres come up often, and in half the rounds a quarter or three quarters
+ * of the elements repeat the coordinates of an earlier one, from the same
+ * batch or the one before. The bucket size and depth limit vary from round
+ * to round, as does whether the insertAll() trees fork their range
+ * searches. After each batch, and after some removals, the display of
+ * every tree and the results of range, iterator, count and
+ * nearest-neighbour queries must match those of the first tree. Prints
+ * each mismatch found and a summary.
+ *
+ * Invocation: java QuadTreeCheck [number of rounds] [seed]
+ */
+public class QuadTreeCheck
+{
+    private static final long WORLD_SIZE = 64; //World is [0, WORLD_SIZE] squared
+    private static final int QUERIES = 20; //Queries of each kind per check
+    private static final String[] NAMES = {"objects/insert", "objects/insertAll",
+        "flat/insert", "flat/insertAll"};
+
+    private static int numMismatches;
+
+    /**
+     * Runs the rounds and prints the mismatches found
+     * @param args args[0] = number of rounds (default 500)
+     *             args[1] = random seed (default 1)
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int numRounds = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random rand = new Random(seed);
+
+        for (int round = 0; round < numRounds; round++)
+        {
+            checkRound(round, rand);
+        }
+        System.out.println(numRounds + " rounds, " + numMismatches + " mismatches");
+        if (numMismatches > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Builds the four trees from two random batches and compares them after
+     * each batch and after removing some of the points
+     */
+    private static void checkRound(int round, Random rand) throws IOException
+    {
+        int bucketSize = 1 + rand.nextInt(5);
+        int maxDepth = rand.nextBoolean() ? 1 + rand.nextInt(4) : 32;
+        //Points on a lattice of step 1, 2, 4 or 8
+        long step = 1L << rand.nextInt(4);
+        //Percentage of elements that repeat an earlier point's coordinates
+        int repeatPercent = rand.nextBoolean() ? 0 : rand.nextBoolean() ? 25 : 75;
+        boolean parallel = rand.nextBoolean();
+        String setting = "round " + round + " (bucket " + bucketSize + ", depth " +
+            maxDepth + ", step " + step + (repeatPercent > 0 ? ", repeats " + repeatPercent + "%" : "") +
+            (parallel ? ", parallel" : "") + ")";
+
+        ArrayList<PRQuadTree<CoordinateEntry>> trees = new ArrayList<PRQuadTree<CoordinateEntry>>();
+        for (int i = 0; i < NAMES.length; i++)
+        {
+            PRQuadTree<CoordinateEntry> tree =
+                new PRQuadTree<CoordinateEntry>(i >= 2, bucketSize, maxDepth);
+            tree.setWorld(0, WORLD_SIZE, 0, WORLD_SIZE);
+            if (parallel && i % 2 == 1)
+            {
+                tree.setParallelThreshold(1);
+            }
+            trees.add(tree);
+        }
+
+        //The first batch goes into empty trees, the second into non-empty ones
+        long nextOffset = 0;
+        ArrayList<long[]> points = new ArrayList<long[]>();
+        for (int batchNum = 0; batchNum < 2; batchNum++)
+        {
+            int batchSize = rand.nextInt(bucketSize * 40 + 1);
+            long[][] batch = new long[batchSize][];
+            for (int i = 0; i < batchSize; i++)
+            {
+                if (!points.isEmpty() && rand.nextInt(100) < repeatPercent)
+                {
+                    long[] point = points.get(rand.nextInt(points.size()));
+                    batch[i] = new long[] {point[0], point[1], nextOffset++};
+                }
+                else
+                {
+                    //Some points fall just outside the world
+                    batch[i] = new long[] {step * (rand.nextInt((int)(WORLD_SIZE / step) + 2) - 1),
+                        step * (rand.nextInt((int)(WORLD_SIZE / step) + 2) - 1), nextOffset++};
+                }
+                if (repeatPercent == 0 && contains(points, batch[i]))
+                {
+                    batch[i][0] = WORLD_SIZE + 1; //Drop it outside the world instead
+                }
+                points.add(batch[i]);
+            }
+
+            int[] numInserted = new int[NAMES.length];
+            for (int t = 0; t < NAMES.length; t++)
+            {
+                ArrayList<CoordinateEntry> entries = toEntries(batch);
+                if (t % 2 == 1)
+                {
+                    numInserted[t] = trees.get(t).insertAll(entries);
+                }
+                else
+                {
+                    for (CoordinateEntry elem : entries)
+                    {
+                        if (trees.get(t).insert(elem))
+                        {
+                            numInserted[t]++;
+                        }
+                    }
+                }
+            }
+            for (int t = 1; t < NAMES.length; t++)
+            {
+                if (numInserted[t] != numInserted[0])
+                {
+                    mismatch(setting, NAMES[t], "number inserted from batch " + batchNum,
+                        "" + numInserted[0], "" + numInserted[t]);
+                }
+            }
+            compare(trees, setting, "after batch " + batchNum, rand);
+        }
+
+        //Remove a few points, whole or one offset at a time
+        for (int i = 0; i < 10 && !points.isEmpty(); i++)
+        {
+            long[] point = points.get(rand.nextInt(points.size()));
+            boolean wholePoint = rand.nextBoolean();
+            boolean[] removed = new boolean[NAMES.length];
+            for (int t = 0; t < NAMES.length; t++)
+            {
+                CoordinateEntry elem = new CoordinateEntry(point[0], point[1], point[2]);
+                removed[t] = wholePoint ? trees.get(t).remove(elem) :
+                    trees.get(t).removeOffset(elem, point[2]);
+                if (removed[t] != removed[0])
+                {
+                    mismatch(setting, NAMES[t], "removal of " + elem,
+                        "" + removed[0], "" + removed[t]);
+                }
+            }
+        }
+        compare(trees, setting, "after removals", rand);
+    }
+
+    /**
+     * Compares every tree with the first one: display, then random range,
+     * iterator, count and nearest-neighbour queries
+     */
+    private static void compare(ArrayList<PRQuadTree<CoordinateEntry>> trees, String setting,
+        String stage, Random rand) throws IOException
+    {
+        String[] displays = new String[trees.size()];
+        for (int t = 0; t < trees.size(); t++)
+        {
+            displays[t] = display(trees.get(t));
+            if (t > 0 && !displays[t].equals(displays[0]))
+            {
+                mismatch(setting, NAMES[t], "display " + stage, displays[0], displays[t]);
+            }
+        }
+
+        for (int q = 0; q < QUERIES; q++)
+        {
+            long xLo = rand.nextInt((int)WORLD_SIZE + 1);
+            long yLo = rand.nextInt((int)WORLD_SIZE + 1);
+            long xHi = xLo + rand.nextInt((int)WORLD_SIZE / 2);
+            long yHi = yLo + rand.nextInt((int)WORLD_SIZE / 2);
+            long x = rand.nextInt((int)WORLD_SIZE + 1);
+            long y = rand.nextInt((int)WORLD_SIZE + 1);
+            int k = 1 + rand.nextInt(8);
+            String box = "[" + xLo + ", " + xHi + "] x [" + yLo + ", " + yHi + "]";
+
+            String[] results = new String[4];
+            for (int t = 0; t < trees.size(); t++)
+            {
+                PRQuadTree<CoordinateEntry> tree = trees.get(t);
+                ArrayList<CoordinateEntry> iterated = new ArrayList<CoordinateEntry>();
+                Iterator<CoordinateEntry> iter = tree.iterator(xLo, xHi, yLo, yHi);
+                while (iter.hasNext())
+                {
+                    iterated.add(iter.next());
+                }
+                long[] counts = tree.count(xLo, xHi, yLo, yHi);
+                String[] current = {tree.find(xLo, xHi, yLo, yHi).toString(), iterated.toString(),
+                    counts[0] + " points, " + counts[1] + " offsets",
+                    tree.findNearest(x, y, k).toString()};
+                String[] kinds = {"find " + box, "iterator " + box, "count " + box,
+                    "findNearest (" + x + ", " + y + "), " + k};
+                for (int i = 0; i < results.length; i++)
+                {
+                    if (t == 0)
+                    {
+                        results[i] = current[i];
+                    }
+                    else if (!current[i].equals(results[i]))
+                    {
+                        mismatch(setting, NAMES[t], kinds[i] + " " + stage, results[i], current[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the display of a tree
+     */
+    private static String display(PRQuadTree<CoordinateEntry> tree) throws IOException
+    {
+        File file = File.createTempFile("quadcheck", ".txt");
+        try
+        {
+            FileWriter out = new FileWriter(file);
+            tree.display(out);
+            out.close();
+            return new String(Files.readAllBytes(file.toPath()));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns a fresh element for each point of a batch, since inserting
+     * into a tree can add offsets to an element
+     */
+    private static ArrayList<CoordinateEntry> toEntries(long[][] batch)
+    {
+        ArrayList<CoordinateEntry> entries = new ArrayList<CoordinateEntry>(batch.length);
+        for (long[] point : batch)
+        {
+            entries.add(new CoordinateEntry(point[0], point[1], point[2]));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns true iff a point in points has the same coordinates as point
+     */
+    private static boolean contains(ArrayList<long[]> points, long[] point)
+    {
+        for (long[] other : points)
+        {
+            if (other[0] == point[0] && other[1] == point[1])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prints a mismatch between a tree and the first tree
+     */
+    private static void mismatch(String setting, String name, String what,
+        String expected, String actual)
+    {
+        numMismatches++;
+        System.out.println(setting + ": " + name + " differs in " + what);
+        System.out.println("  " + NAMES[0] + ": " + expected.replace("\n", "\n  "));
+        System.out.println("  " + name + ": " + actual.replace("\n", "\n  "));
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Interface for the pool of GIS records in front of the database file, so
+ * that a single pool or a sharded, thread-safe pool can be selected at
+ * startup
+ */
+public interface RecordPool
+{
+    /**
+     * Returns the record at offset if it is in the pool (counting a hit and
+     * telling the replacement policy it was used), or null (counting a miss)
+     */
+    public GISRecord inPool(long offset);
+
+    /**
+     * Puts a record read from the database into the pool, unless the pool
+     * is full and its admission filter turns the record away
+     * Pre: inPool() has just missed on the record's offset
+     */
+    public void insertRcd(GISRecord rcd);
+
+    /**
+     * Returns true iff the record at offset is in the pool, without
+     * counting a hit or miss or telling the replacement policy
+     */
+    public boolean contains(long offset);
+
+    /**
+     * Returns the number of records the pool holds when full
+     */
+    public int capacity();
+
+    /**
+     * Returns the records in the pool, from the one the pool would keep
+     * longest to the one it would replace first
+     */
+    public GISRecord[] contents();
+
+    /**
+     * Fills this (empty) pool with the records of another pool that fit,
+     * keeping those the other pool ranks highest. The counts start from zero.
+     */
+    public void takeFrom(RecordPool other);
+
+    /**
+     * Returns the hit, miss and eviction counts and the hit ratio, in a form
+     * suitable for the log
+     */
+    public String stats();
+
+    /**
+     * Displays the contents of the pool and its counts
+     */
+    public void display(FileWriter log) throws IOException;
+}
@@ -0,0 +1,34 @@
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Interface for reading records out of the database file on a buffer pool
+ * miss, so that different read paths can be selected at startup
+ */
+public interface RecordSource
+{
+    /**
+     * Returns the record (line) that starts at offset, without its line
+     * terminator, or null if offset is at the end of the file. Matches what
+     * RandomAccessFile.readLine() returns there.
+     */
+    public String readRecord(long offset) throws IOException;
+
+    /**
+     * Reads the records that start at each of offsets[0, count), as
+     * readRecord() would, into records[0, count)
+     * Pre: offsets[0, count) are in increasing order
+     */
+    public void readRecords(long[] offsets, int count, String[] records) throws IOException;
+
+    /**
+     * Brings anything cached from the database file up to date after
+     * records have been appended to it
+     */
+    public void refresh() throws IOException;
+
+    /**
+     * Writes a summary of the source's cache, if it has one, to the log
+     */
+    public void display(FileWriter log) throws IOException;
+}
@@ -0,0 +1,143 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable tokenizer for pipe-delimited GIS records.
+ *
+ * reset() makes a single pass over a record (either a String or a range of
+ * bytes) and remembers where each field starts, so fields can then be pulled
+ * out by index. No regular expressions are used and no objects are created
+ * unless a field is asked for as a String.
+ */
+public class RecordTokenizer
+{
+    //Indices of the fields used by the GIS commands
+    public static final int FEATURE_ID = 0;
+    public static final int FEATURE_NAME = 1;
+    public static final int FEATURE_CLASS = 2;
+    public static final int STATE_ALPHA = 3;
+    public static final int STATE_NUMERIC = 4;
+    public static final int COUNTY_NAME = 5;
+    public static final int COUNTY_NUMERIC = 6;
+    public static final int PRIMARY_LAT_DMS = 7;
+    public static final int PRIM_LONG_DMS = 8;
+
+    private static final int MAX_FIELDS = 32; //Fields past this are ignored
+
+    private String line; //Current record if it is a String
+    private byte[] bytes; //Current record if it is a byte range
+    private int[] fieldStarts = new int[MAX_FIELDS + 1]; //Start of each field
+    private int numFields; //Number of fields in the record
+
+    /**
+     * Tokenizes a record held in a String
+     */
+    public void reset(String record)
+    {
+        line = record;
+        bytes = null;
+        int end = record.length();
+
+        fieldStarts[0] = 0;
+        numFields = 1;
+        for (int i = 0; i < end && numFields < MAX_FIELDS; i++)
+        {
+            if (record.charAt(i) == '|')
+            {
+                fieldStarts[numFields++] = i + 1;
+            }
+        }
+        fieldStarts[numFields] = end + 1;
+    }
+
+    /**
+     * Tokenizes a record held in buf[start, end)
+     */
+    public void reset(byte[] buf, int start, int end)
+    {
+        line = null;
+        bytes = buf;
+
+        fieldStarts[0] = start;
+        numFields = 1;
+        for (int i = start; i < end && numFields < MAX_FIELDS; i++)
+        {
+            if (buf[i] == '|')
+            {
+                fieldStarts[numFields++] = i + 1;
+            }
+        }
+        fieldStarts[numFields] = end + 1;
+    }
+
+    /**
+     * Returns the number of fields in the current record
+     */
+    public int numFields()
+    {
+        return numFields;
+    }
+
+    /**
+     * Returns the length of the given field (0 if the record has no such field)
+     */
+    public int fieldLength(int idx)
+    {
+        if (idx >= numFields)
+        {
+            return 0;
+        }
+        return fieldStarts[idx + 1] - 1 - fieldStarts[idx];
+    }
+
+    /**
+     * Returns the character at position pos of the given field
+     * Pre: 0 <= pos < fieldLength(idx)
+     */
+    public char charAt(int idx, int pos)
+    {
+        int i = fieldStarts[idx] + pos;
+        if (bytes != null)
+        {
+            return (char)(bytes[i] & 0xFF);
+        }
+        return line.charAt(i);
+    }
+
+    /**
+     * Returns true iff the given field matches str exactly
+     */
+    public boolean fieldEquals(int idx, String str)
+    {
+        int len = fieldLength(idx);
+        if (len != str.length())
+        {
+            return false;
+        }
+        for (int pos = 0; pos < len; pos++)
+        {
+            if (charAt(idx, pos) != str.charAt(pos))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the given field as a String ("" if the record has no such field)
+     */
+    public String field(int idx)
+    {
+        int len = fieldLength(idx);
+        if (len == 0)
+        {
+            return "";
+        }
+        if (bytes != null)
+        {
+            //Bytes map directly to chars, as with RandomAccessFile.readLine()
+            return new String(bytes, fieldStarts[idx], len, StandardCharsets.ISO_8859_1);
+        }
+        return line.substring(fieldStarts[idx], fieldStarts[idx] + len);
+    }
+}
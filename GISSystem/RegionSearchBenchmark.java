@@ -0,0 +1,111 @@
+import java.util.Random;
+
+/**
+ * Compares sequential and fork/join region search in PRQuadTree across box
+ * sizes, in both storage modes, to show where the parallel search starts to
+ * pay for its task overhead. The crossover depends on the number of cores,
+ * which is printed with the results.
+ *
+ * Invocation: java RegionSearchBenchmark [number of points] [number of queries]
+ */
+public class RegionSearchBenchmark
+{
+    private static final long[] HALF_WIDTHS = {30, 300, 1000, 3000, 10000, 25000};
+    private static final int[] THRESHOLDS = {1000, 10000, 100000};
+
+    /**
+     * Runs the benchmark and prints one row per storage mode and box size
+     * @param args args[0] = number of points (default 500000)
+     *             args[1] = number of queries per box size (default 200)
+     */
+    public static void main(String[] args)
+    {
+        int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        long[][] points = QuadTreeBenchmark.generatePoints(numPoints, new Random(1));
+        Random rand = new Random(2);
+        long[][] queries = new long[numQueries][];
+        for (int i = 0; i < numQueries; i++)
+        {
+            queries[i] = points[rand.nextInt(numPoints)];
+        }
+
+        System.out.println("points: " + numPoints + ", queries: " + numQueries
+            + ", processors: " + Runtime.getRuntime().availableProcessors());
+        StringBuilder header = new StringBuilder(String.format("%-8s %8s %10s %10s",
+            "storage", "box", "found", "seq us"));
+        for (int threshold : THRESHOLDS)
+        {
+            header.append(String.format(" %12s", "par>=" + threshold));
+        }
+        System.out.println(header);
+
+        for (int mode = 0; mode < 2; mode++)
+        {
+            PRQuadTree<CoordinateEntry> tree = new PRQuadTree<CoordinateEntry>(mode == 1, 4, 32);
+            tree.setWorld(QuadTreeBenchmark.WORLD_MIN_X, QuadTreeBenchmark.WORLD_MAX_X,
+                QuadTreeBenchmark.WORLD_MIN_Y, QuadTreeBenchmark.WORLD_MAX_Y);
+            for (int i = 0; i < points.length; i++)
+            {
+                tree.insert(new CoordinateEntry(points[i][0], points[i][1], i));
+            }
+
+            //Warm up both search paths
+            runQueries(tree, 0, queries, 1000);
+            runQueries(tree, 1, queries, 1000);
+
+            for (long halfWidth : HALF_WIDTHS)
+            {
+                tree.setParallelThreshold(0);
+                long found = runQueries(tree, 0, queries, halfWidth);
+                double seqMicros = timeQueries(tree, queries, halfWidth);
+                StringBuilder row = new StringBuilder(String.format("%-8s %8d %10.1f %10.1f",
+                    mode == 1 ? "flat" : "objects", 2 * halfWidth,
+                    (double)found / queries.length, seqMicros));
+                for (int threshold : THRESHOLDS)
+                {
+                    tree.setParallelThreshold(threshold);
+                    double parMicros = timeQueries(tree, queries, halfWidth);
+                    //Mark the cases where the parallel search wins
+                    row.append(String.format(" %11.1f%s", parMicros,
+                        parMicros < seqMicros ? "*" : " "));
+                }
+                System.out.println(row);
+            }
+        }
+        System.out.println("* parallel search faster than sequential");
+    }
+
+    /**
+     * Runs each query with the given threshold and returns the total found
+     */
+    private static long runQueries(PRQuadTree<CoordinateEntry> tree, int threshold,
+        long[][] queries, long halfWidth)
+    {
+        tree.setParallelThreshold(threshold);
+        long found = 0;
+        for (int i = 0; i < queries.length; i++)
+        {
+            found += tree.find(queries[i][0] - halfWidth, queries[i][0] + halfWidth,
+                queries[i][1] - halfWidth, queries[i][1] + halfWidth).size();
+        }
+        return found;
+    }
+
+    /**
+     * Returns the mean time per query in microseconds with the tree's
+     * current threshold
+     */
+    private static double timeQueries(PRQuadTree<CoordinateEntry> tree, long[][] queries,
+        long halfWidth)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++)
+        {
+            tree.find(queries[i][0] - halfWidth, queries[i][0] + halfWidth,
+                queries[i][1] - halfWidth, queries[i][1] + halfWidth);
+        }
+        return (System.nanoTime() - start) / 1e3 / queries.length;
+    }
+}
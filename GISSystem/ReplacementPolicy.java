@@ -0,0 +1,44 @@
+/**
+ * Interface for the replacement policy of the BufferPool, so that different
+ * policies can be selected at startup.
+ *
+ * The pool keeps its records in slots numbered from 0 to capacity - 1 and
+ * tells the policy when a slot is filled, used again or emptied; the policy
+ * only decides which slot to give up when the pool is full. Every operation
+ * takes constant (amortised) time.
+ */
+public interface ReplacementPolicy
+{
+    /**
+     * Returns the name the policy is selected by (Ex: lru)
+     */
+    public String name();
+
+    /**
+     * Records that a record has just been put in slot
+     */
+    public void inserted(int slot);
+
+    /**
+     * Records that the record in slot has just been used again
+     */
+    public void accessed(int slot);
+
+    /**
+     * Pre: every slot is filled
+     * Returns the slot whose record should be replaced next. The slot stays
+     * in the policy until evicted() is called for it.
+     */
+    public int victim();
+
+    /**
+     * Records that the record in slot has been dropped from the pool
+     */
+    public void evicted(int slot);
+
+    /**
+     * Returns the filled slots from the one the policy would keep longest to
+     * the one it would replace first
+     */
+    public int[] order();
+}
@@ -0,0 +1,226 @@
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+* Implements a NameEntry open-addressing hash table using Robin Hood linear
+* probing. The physical table is a pair of parallel arrays holding the cached
+* hash code and a reference to the NameEntry for each slot, so there are no
+* per-element node objects.
+*
+* The table has a default size of 256 slots (always a power of two)
+*
+* The size of the table is doubled when the load factor would exceed the
+* load limit (0.75).
+*/
+public class RobinHoodHashTable implements NameIndex
+{
+    private int[] hashes; //Cached hash code of the entry in each slot
+    private NameEntry[] entries; //Entry in each slot (null if empty)
+    private int numElements = 0; //Number of elements in the table
+    private double loadLimit = 0.75; //Table resize trigger
+    private int tableSize = 256; //Current number of table slots
+    private long numFinds = 0; //Number of find operations performed
+    private long totalProbes = 0; //Slots examined across all finds
+    private int maxProbes = 0; //Most slots examined by a single find
+
+    /** Constructs an empty hash table
+     * Post:
+     * - hashes and entries are arrays of tableSize empty slots
+     */
+    public RobinHoodHashTable()
+    {
+        hashes = new int[tableSize];
+        entries = new NameEntry[tableSize];
+    }
+
+    /** Inserts elem into the table, unless the table already contains a
+     * matching element (according to the equals() method for NameEntry), in
+     * which case elem's offset is added to the matching element.
+     * Pre:
+     * - elem is a valid NameEntry object
+     * Post:
+     * - elem is inserted unless it is a duplicate
+     * - if the resulting load factor would exceed the load limit, the
+     * table is rehashed with the size doubled first
+     * Returns:
+     * true iff elem (or its offset) has been inserted
+     */
+    public boolean insert(NameEntry elem)
+    {
+        int hash = elem.Hash();
+        int mask = tableSize - 1;
+        int slotIdx = hash & mask;
+
+        //Walk the probe sequence looking for a duplicate. Robin Hood ordering
+        //means the search can stop at the first slot whose occupant is closer
+        //to its home slot than elem would be.
+        for (int dist = 0; entries[slotIdx] != null; dist++)
+        {
+            if (probeDistance(slotIdx) < dist)
+            {
+                break;
+            }
+            if (hashes[slotIdx] == hash && entries[slotIdx].equals(elem))
+            {
+                return entries[slotIdx].addLocation(elem.locations().get(0));
+            }
+            slotIdx = (slotIdx + 1) & mask;
+        }
+
+        //Rehash if the load limit would be exceeded
+        if (numElements + 1 > tableSize * loadLimit)
+        {
+            rehashTable();
+        }
+        place(hash, elem);
+        numElements++;
+        return true;
+    }
+
+    /** Searches the table for an element that matches elem (according to
+     * the equals() method for NameEntry).
+     * Pre:
+     * - elem is a valid NameEntry object
+     * Returns:
+     * reference to the matching element; null if no match is found
+     */
+    public NameEntry find(NameEntry elem)
+    {
+        int hash = elem.Hash();
+        int mask = tableSize - 1;
+        int slotIdx = hash & mask;
+        int probes = 0;
+        NameEntry match = null;
+
+        for (int dist = 0; entries[slotIdx] != null; dist++)
+        {
+            probes++;
+            //elem would have displaced this occupant, so it is not present
+            if (probeDistance(slotIdx) < dist)
+            {
+                break;
+            }
+            if (hashes[slotIdx] == hash && entries[slotIdx].equals(elem))
+            {
+                match = entries[slotIdx];
+                break;
+            }
+            slotIdx = (slotIdx + 1) & mask;
+        }
+
+        //Record probe length
+        numFinds++;
+        totalProbes += probes;
+        if (probes > maxProbes)
+        {
+            maxProbes = probes;
+        }
+
+        //Matching element or null if there is no match
+        return match;
+    }
+
+    /** Writes a formatted display of the hash table contents.
+    * Pre:
+    * - fw is open on an output file
+    */
+    public void display(FileWriter fw) throws IOException
+    {
+        fw.write("Number of elements: " + numElements + "\n");
+        fw.write("Number of slots: " + tableSize + "\n");
+        fw.write("Maximum probe distance: " + getMaxProbeDistance() + "\n");
+        fw.write("Load limit: " + loadLimit + "\n");
+        fw.write("Number of finds: " + numFinds + "\n");
+        fw.write("Average probes per find: " +
+            String.format("%.2f", numFinds == 0 ? 0.0 : (double)totalProbes / numFinds) + "\n");
+        fw.write("Maximum probes in a find: " + maxProbes + "\n");
+        fw.write("\n");
+
+        fw.write("Slot Contents\n");
+        for (int idx = 0; idx < tableSize; idx++)
+        {
+            if (entries[idx] != null)
+            {
+                fw.write(String.format("%5d: %s\n", idx, entries[idx].toString()));
+            }
+        }
+    }
+
+    /** Rehashes the hash table with double the amount of available slots
+    * Post:
+    * - None of the nameEntries in the old table are changed
+    */
+    public void rehashTable()
+    {
+        int[] oldHashes = hashes;
+        NameEntry[] oldEntries = entries;
+
+        tableSize *= 2;
+        hashes = new int[tableSize];
+        entries = new NameEntry[tableSize];
+
+        //Reinsert every occupied slot using its cached hash code
+        for (int idx = 0; idx < oldEntries.length; idx++)
+        {
+            if (oldEntries[idx] != null)
+            {
+                place(oldHashes[idx], oldEntries[idx]);
+            }
+        }
+    }
+
+    /**
+    * Returns the largest distance of any element from its home slot
+    */
+    public int getMaxProbeDistance()
+    {
+        int maxDist = 0;
+        for (int idx = 0; idx < tableSize; idx++)
+        {
+            if (entries[idx] != null && probeDistance(idx) > maxDist)
+            {
+                maxDist = probeDistance(idx);
+            }
+        }
+        return maxDist;
+    }
+
+    /**
+     * Places an element known not to be in the table, displacing any
+     * occupant that is closer to its home slot than the element being placed
+     */
+    private void place(int hash, NameEntry elem)
+    {
+        int mask = tableSize - 1;
+        int slotIdx = hash & mask;
+        int dist = 0;
+
+        while (entries[slotIdx] != null)
+        {
+            int occupantDist = probeDistance(slotIdx);
+            //Take the slot from the richer occupant and carry it forward
+            if (occupantDist < dist)
+            {
+                int tempHash = hashes[slotIdx];
+                NameEntry tempElem = entries[slotIdx];
+                hashes[slotIdx] = hash;
+                entries[slotIdx] = elem;
+                hash = tempHash;
+                elem = tempElem;
+                dist = occupantDist;
+            }
+            slotIdx = (slotIdx + 1) & mask;
+            dist++;
+        }
+        hashes[slotIdx] = hash;
+        entries[slotIdx] = elem;
+    }
+
+    /**
+     * Returns how far the occupant of the given slot is from its home slot
+     */
+    private int probeDistance(int slotIdx)
+    {
+        return (slotIdx - (hashes[slotIdx] & (tableSize - 1))) & (tableSize - 1);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Segmented LRU replacement.
+ *
+ * New records enter a probationary segment; a record used again while
+ * there is promoted to the protected segment, which holds up to 80% of the
+ * pool. When the protected segment overflows, its LRU record drops back to
+ * the MRU end of probation. Victims come from the LRU end of probation, so
+ * a long scan of records that are used once only churns the probationary
+ * segment and leaves the repeatedly used records alone.
+ */
+public class SegmentedLruPolicy implements ReplacementPolicy
+{
+    private static final int NONE = -1; //End of a list
+    private static final int PROBATION = 0;
+    private static final int PROTECTED = 1;
+
+    private int[] prev, next; //Neighbours of each slot in its segment's list
+    private byte[] segment; //Segment each slot is in
+    private int[] head = {NONE, NONE}; //MRU slot of each segment
+    private int[] tail = {NONE, NONE}; //LRU slot of each segment
+    private int[] size = new int[2]; //Number of slots in each segment
+    private int protectedCapacity; //Largest size of the protected segment
+
+    /**
+     * Creates the policy for a pool of the given capacity
+     */
+    public SegmentedLruPolicy(int capacity)
+    {
+        prev = new int[capacity];
+        next = new int[capacity];
+        segment = new byte[capacity];
+        protectedCapacity = Math.max(capacity * 4 / 5, 1);
+    }
+
+    public String name()
+    {
+        return "slru";
+    }
+
+    public void inserted(int slot)
+    {
+        linkFirst(PROBATION, slot);
+    }
+
+    public void accessed(int slot)
+    {
+        unlink(slot);
+        linkFirst(PROTECTED, slot);
+        //Demote the protected LRU record to make room
+        if (size[PROTECTED] > protectedCapacity)
+        {
+            int demoted = tail[PROTECTED];
+            unlink(demoted);
+            linkFirst(PROBATION, demoted);
+        }
+    }
+
+    public int victim()
+    {
+        return tail[PROBATION] != NONE ? tail[PROBATION] : tail[PROTECTED];
+    }
+
+    public void evicted(int slot)
+    {
+        unlink(slot);
+    }
+
+    public int[] order()
+    {
+        int[] slots = new int[size[PROTECTED] + size[PROBATION]];
+        int i = 0;
+        for (int slot = head[PROTECTED]; slot != NONE; slot = next[slot])
+        {
+            slots[i++] = slot;
+        }
+        for (int slot = head[PROBATION]; slot != NONE; slot = next[slot])
+        {
+            slots[i++] = slot;
+        }
+        return slots;
+    }
+
+    /**
+     * Takes a slot out of its segment's list
+     */
+    private void unlink(int slot)
+    {
+        int seg = segment[slot];
+        if (prev[slot] == NONE)
+        {
+            head[seg] = next[slot];
+        }
+        else
+        {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NONE)
+        {
+            tail[seg] = prev[slot];
+        }
+        else
+        {
+            prev[next[slot]] = prev[slot];
+        }
+        size[seg]--;
+    }
+
+    /**
+     * Puts a slot at the MRU end of a segment's list
+     */
+    private void linkFirst(int seg, int slot)
+    {
+        segment[slot] = (byte)seg;
+        prev[slot] = NONE;
+        next[slot] = head[seg];
+        if (head[seg] == NONE)
+        {
+            tail[seg] = slot;
+        }
+        else
+        {
+            prev[head[seg]] = slot;
+        }
+        head[seg] = slot;
+        size[seg]++;
+    }
+}
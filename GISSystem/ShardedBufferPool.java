@@ -0,0 +1,198 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A thread-safe record pool made of independent BufferPool shards.
+ *
+ * Each offset belongs to one shard, picked by a multiplicative hash of the
+ * offset, and every operation locks only that shard. Threads working on
+ * different offsets therefore rarely wait for each other, where a single
+ * pool behind one lock would make them take turns. Each shard runs its own
+ * replacement policy (and admission filter) over its share of the
+ * capacity, so replacement is only approximately global. The counts
+ * reported are the totals over all the shards.
+ *
+ * Only the pool is shared: each thread still needs its own RecordSource to
+ * read the records that miss it.
+ */
+public class ShardedBufferPool implements RecordPool
+{
+    private BufferPool<GISRecord>[] shards;
+    private int shardShift; //64 - log2(number of shards)
+
+    /**
+     * Creates an empty pool
+     * @param capacity The total number of records the pool holds (>= 1), split
+     *                 as evenly as possible over the shards; raised to
+     *                 numShards if smaller, since every shard holds a record
+     * @param numShards The number of shards (a power of two)
+     * @param policy The name of each shard's replacement policy
+     * @param admission true to put a TinyLFU admission filter on each shard
+     */
+    public ShardedBufferPool(int capacity, int numShards, String policy, boolean admission)
+    {
+        //Generic arrays cannot be created directly
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BufferPool<GISRecord>[] created = new BufferPool[numShards];
+        shards = created;
+        for (int i = 0; i < numShards; i++)
+        {
+            //The first capacity % numShards shards take one record more
+            int shardCapacity = capacity / numShards + (i < capacity % numShards ? 1 : 0);
+            shards[i] = BufferPool.create(Math.max(shardCapacity, 1), policy, admission);
+        }
+        shardShift = 64 - Integer.numberOfTrailingZeros(numShards);
+    }
+
+    public GISRecord inPool(long offset)
+    {
+        BufferPool<GISRecord> shard = shardOf(offset);
+        synchronized (shard)
+        {
+            return shard.inPool(offset);
+        }
+    }
+
+    public void insertRcd(GISRecord rcd)
+    {
+        BufferPool<GISRecord> shard = shardOf(rcd.offset());
+        synchronized (shard)
+        {
+            //Another thread may have read and inserted the record since the miss
+            if (!shard.contains(rcd.offset()))
+            {
+                shard.insertRcd(rcd);
+            }
+        }
+    }
+
+    public boolean contains(long offset)
+    {
+        BufferPool<GISRecord> shard = shardOf(offset);
+        synchronized (shard)
+        {
+            return shard.contains(offset);
+        }
+    }
+
+    public int capacity()
+    {
+        int capacity = 0;
+        for (int i = 0; i < shards.length; i++)
+        {
+            capacity += shards[i].capacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns the records of all the shards, taking one from each shard in
+     * turn, so that records of the same rank in their shards stay together
+     */
+    public GISRecord[] contents()
+    {
+        GISRecord[][] shardContents = new GISRecord[shards.length][];
+        int total = 0;
+        for (int i = 0; i < shards.length; i++)
+        {
+            synchronized (shards[i])
+            {
+                shardContents[i] = shards[i].contents();
+            }
+            total += shardContents[i].length;
+        }
+        GISRecord[] ranked = new GISRecord[total];
+        int numRanked = 0;
+        for (int rank = 0; numRanked < total; rank++)
+        {
+            for (int i = 0; i < shards.length; i++)
+            {
+                if (rank < shardContents[i].length)
+                {
+                    ranked[numRanked++] = shardContents[i][rank];
+                }
+            }
+        }
+        return ranked;
+    }
+
+    public void takeFrom(RecordPool other)
+    {
+        //Split the other pool's records by shard, keeping their ranking
+        ArrayList<ArrayList<GISRecord>> split = new ArrayList<ArrayList<GISRecord>>();
+        for (int i = 0; i < shards.length; i++)
+        {
+            split.add(new ArrayList<GISRecord>());
+        }
+        GISRecord[] ranked = other.contents();
+        for (int i = 0; i < ranked.length; i++)
+        {
+            split.get(shardIndex(ranked[i].offset())).add(ranked[i]);
+        }
+        for (int i = 0; i < shards.length; i++)
+        {
+            synchronized (shards[i])
+            {
+                shards[i].load(split.get(i).toArray(new GISRecord[0]));
+            }
+        }
+    }
+
+    public String stats()
+    {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long rejections = 0;
+        for (int i = 0; i < shards.length; i++)
+        {
+            synchronized (shards[i])
+            {
+                hits += shards[i].hits();
+                misses += shards[i].misses();
+                evictions += shards[i].evictions();
+                rejections += shards[i].rejections();
+            }
+        }
+        String policyName = shards[0].policyName();
+        return BufferPool.formatStats(policyName + " x " + shards.length + " shards", capacity(),
+            hits, misses, evictions, policyName.endsWith("+tinylfu") ? rejections : -1);
+    }
+
+    /**
+     * Displays the contents of each shard, from MRU to LRU, followed by the
+     * total counts
+     */
+    public void display(FileWriter log) throws IOException
+    {
+        for (int i = 0; i < shards.length; i++)
+        {
+            log.write("Shard " + i + "\n");
+            synchronized (shards[i])
+            {
+                shards[i].displayRecords(log);
+            }
+        }
+        log.write(stats() + "\n");
+        log.write(
+            "--------------------------------------------------------------------------------\n");
+    }
+
+    /**
+     * Returns the shard that holds offset
+     */
+    private BufferPool<GISRecord> shardOf(long offset)
+    {
+        return shards[shardIndex(offset)];
+    }
+
+    /**
+     * Returns the index of the shard that holds offset
+     */
+    private int shardIndex(long offset)
+    {
+        //Fibonacci hashing: the top bits of the product mix all of the offset
+        return shards.length == 1 ? 0 : (int)((offset * 0x9E3779B97F4A7C15L) >>> shardShift);
+    }
+}